@@ -0,0 +1,78 @@
+package org.popcraft.lwctrust;
+
+import com.griefcraft.model.Permission;
+import com.griefcraft.model.Protection;
+import com.griefcraft.scripting.event.LWCAccessEvent;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Measures TrustModule.onAccessRequest for trusted and untrusted requesters, with trusts served from the cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AccessCheckBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int trustSize;
+
+    @Param({"100", "10000"})
+    public int cacheSize;
+
+    private TrustModule trustModule;
+    private LWCAccessEvent trustedEvent, untrustedEvent, legacyOwnerEvent;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0);
+        MemoryTrustStorage storage = new MemoryTrustStorage();
+        TrustCache trustCache = new TrustCache(Logger.getAnonymousLogger(), cacheSize, storage,
+                ForkJoinPool.commonPool());
+        List<UUID> owners = Fixtures.uuids(random, cacheSize);
+        for (UUID owner : owners) {
+            storage.save(owner, TrustSet.of(Fixtures.uuids(random, trustSize)));
+            trustCache.load(owner);
+        }
+        GroupManager groupManager = new GroupManager(new File("groups.json"), trustCache, cacheSize);
+        this.trustModule = new TrustModule(Logger.getAnonymousLogger(), trustCache, groupManager,
+                ForkJoinPool.commonPool(), 2, 4096);
+        UUID owner = owners.get(0);
+        UUID trusted = storage.load(owner).iterator().next();
+        this.trustedEvent = event(owner.toString(), trusted);
+        this.untrustedEvent = event(owner.toString(), UUID.randomUUID());
+        this.legacyOwnerEvent = event("Notch", trusted);
+    }
+
+    @Benchmark
+    public LWCAccessEvent trusted() {
+        trustModule.onAccessRequest(trustedEvent);
+        return trustedEvent;
+    }
+
+    @Benchmark
+    public LWCAccessEvent untrusted() {
+        trustModule.onAccessRequest(untrustedEvent);
+        return untrustedEvent;
+    }
+
+    @Benchmark
+    public LWCAccessEvent legacyOwner() {
+        trustModule.onAccessRequest(legacyOwnerEvent);
+        return legacyOwnerEvent;
+    }
+
+    private static LWCAccessEvent event(String owner, UUID requester) {
+        Protection protection = new Protection();
+        protection.setOwner(owner);
+        return new LWCAccessEvent(Fixtures.player(requester), protection, Permission.Access.NONE);
+    }
+
+}
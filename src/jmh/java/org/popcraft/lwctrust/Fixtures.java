@@ -0,0 +1,48 @@
+package org.popcraft.lwctrust;
+
+import org.bukkit.entity.Player;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Shared helpers for building benchmark data without a running server.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static List<UUID> uuids(Random random, int count) {
+        List<UUID> uuids = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            uuids.add(new UUID(random.nextLong(), random.nextLong()));
+        }
+        return uuids;
+    }
+
+    /**
+     * A player stand-in which only knows its unique id, which is all the access check needs.
+     */
+    static Player player(UUID uuid) {
+        return (Player) Proxy.newProxyInstance(Fixtures.class.getClassLoader(), new Class<?>[]{Player.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getUniqueId":
+                            return uuid;
+                        case "hashCode":
+                            return uuid.hashCode();
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "Player{" + uuid + "}";
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+}
@@ -0,0 +1,36 @@
+package org.popcraft.lwctrust;
+
+import org.popcraft.lwctrust.storage.TrustStorage;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Storage kept entirely in memory, so that benchmarks measure the cache rather than the disk.
+ */
+public class MemoryTrustStorage implements TrustStorage {
+
+    private final Map<UUID, TrustSet> trusts = new ConcurrentHashMap<>();
+
+    @Override
+    public TrustSet load(UUID owner) {
+        return trusts.getOrDefault(owner, TrustSet.empty());
+    }
+
+    @Override
+    public void save(UUID owner, TrustSet trusts) {
+        if (trusts.isEmpty()) {
+            this.trusts.remove(owner);
+        } else {
+            this.trusts.put(owner, trusts);
+        }
+    }
+
+    @Override
+    public void forEachOwner(Consumer<UUID> consumer) {
+        trusts.keySet().forEach(consumer);
+    }
+
+}
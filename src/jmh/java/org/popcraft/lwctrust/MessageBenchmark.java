@@ -0,0 +1,42 @@
+package org.popcraft.lwctrust;
+
+import org.openjdk.jmh.annotations.*;
+import org.popcraft.lwctrust.locale.Messages;
+import org.popcraft.lwctrust.locale.UTF8Control;
+
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures message formatting as done by LWCTrust.getMessage, using the bundled English locale.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageBenchmark {
+
+    private Messages messages;
+
+    @Setup
+    public void setUp() {
+        ResourceBundle bundle = ResourceBundle.getBundle("locale", Locale.ENGLISH, new UTF8Control());
+        this.messages = new Messages(bundle, bundle);
+    }
+
+    @Benchmark
+    public String plain() {
+        return messages.get("trust.list.empty");
+    }
+
+    @Benchmark
+    public String withArgument() {
+        return messages.get("trust.add", "Notch");
+    }
+
+    @Benchmark
+    public String multiline() {
+        return messages.get("trust.add.confirm");
+    }
+
+}
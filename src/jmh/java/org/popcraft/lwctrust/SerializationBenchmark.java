@@ -0,0 +1,43 @@
+package org.popcraft.lwctrust;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the Gson serialization of the Trust POJO used by the JSON storage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializationBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int trustSize;
+
+    private Gson gson;
+    private Trust trust;
+    private String json;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0);
+        this.gson = new Gson();
+        this.trust = new Trust(new UUID(random.nextLong(), random.nextLong()), Fixtures.uuids(random, trustSize));
+        this.json = gson.toJson(trust);
+    }
+
+    @Benchmark
+    public String toJson() {
+        return gson.toJson(trust);
+    }
+
+    @Benchmark
+    public Trust fromJson() {
+        return gson.fromJson(json, Trust.class);
+    }
+
+}
@@ -0,0 +1,82 @@
+package org.popcraft.lwctrust;
+
+import org.openjdk.jmh.annotations.*;
+import org.popcraft.lwctrust.storage.JsonTrustStorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Measures TrustCache.load for cache hits and misses, and TrustCache.save, against JSON files in a temporary
+ * directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TrustCacheBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int trustSize;
+
+    @Param({"100", "10000"})
+    public int cacheSize;
+
+    private File directory;
+    private TrustCache trustCache;
+    private List<UUID> owners;
+    private UUID coldOwner;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(0);
+        this.directory = Files.createTempDirectory("lwctrust-bench").toFile();
+        JsonTrustStorage storage = new JsonTrustStorage(directory);
+        this.trustCache = new TrustCache(Logger.getAnonymousLogger(), cacheSize, storage, ForkJoinPool.commonPool());
+        this.owners = Fixtures.uuids(random, cacheSize);
+        for (UUID owner : owners) {
+            storage.save(owner, TrustSet.of(Fixtures.uuids(random, trustSize)));
+            trustCache.load(owner);
+        }
+        this.coldOwner = owners.get(0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        directory.delete();
+    }
+
+    @Benchmark
+    public TrustSet loadHit() {
+        next = (next + 1) % owners.size();
+        return trustCache.load(owners.get(next));
+    }
+
+    @Benchmark
+    public TrustSet loadMiss() {
+        trustCache.remove(coldOwner);
+        return trustCache.load(coldOwner);
+    }
+
+    @Benchmark
+    public void save() {
+        UUID owner = owners.get(0);
+        trustCache.save(owner, trustCache.load(owner));
+    }
+
+}
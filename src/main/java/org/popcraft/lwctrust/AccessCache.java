@@ -0,0 +1,64 @@
+package org.popcraft.lwctrust;
+
+import java.util.UUID;
+
+/**
+ * Fixed-size, direct-mapped cache of access decisions keyed by owner and requester. Each decision remembers the
+ * owner's trust epoch at the time it was made, so any trust change makes it stale. Lookups are a single array
+ * probe and never allocate; colliding decisions simply replace each other.
+ */
+public class AccessCache {
+
+    public static final int UNKNOWN = 0;
+    public static final int TRUSTED = 1;
+    public static final int NOT_TRUSTED = 2;
+
+    private static final class Decision {
+
+        private final long ownerMost, ownerLeast, requesterMost, requesterLeast;
+        private final long epoch;
+        private final boolean trusted;
+
+        private Decision(UUID owner, UUID requester, long epoch, boolean trusted) {
+            this.ownerMost = owner.getMostSignificantBits();
+            this.ownerLeast = owner.getLeastSignificantBits();
+            this.requesterMost = requester.getMostSignificantBits();
+            this.requesterLeast = requester.getLeastSignificantBits();
+            this.epoch = epoch;
+            this.trusted = trusted;
+        }
+
+    }
+
+    // Decisions only have final fields, so they are safely published without further synchronization
+    private final Decision[] decisions;
+
+    public AccessCache(int size) {
+        this.decisions = new Decision[Math.max(16, Integer.highestOneBit(Math.max(1, size) - 1) << 1)];
+    }
+
+    public int get(UUID owner, UUID requester, long epoch) {
+        Decision decision = decisions[slot(owner, requester)];
+        if (decision == null || decision.epoch != epoch
+                || decision.ownerMost != owner.getMostSignificantBits()
+                || decision.ownerLeast != owner.getLeastSignificantBits()
+                || decision.requesterMost != requester.getMostSignificantBits()
+                || decision.requesterLeast != requester.getLeastSignificantBits()) {
+            return UNKNOWN;
+        }
+        return decision.trusted ? TRUSTED : NOT_TRUSTED;
+    }
+
+    public void put(UUID owner, UUID requester, long epoch, boolean trusted) {
+        decisions[slot(owner, requester)] = new Decision(owner, requester, epoch, trusted);
+    }
+
+    private int slot(UUID owner, UUID requester) {
+        long hash = owner.getMostSignificantBits() * 31 + owner.getLeastSignificantBits();
+        hash = hash * 0x9e3779b97f4a7c15L + requester.getMostSignificantBits();
+        hash = hash * 0x9e3779b97f4a7c15L + requester.getLeastSignificantBits();
+        hash ^= hash >>> 32;
+        return (int) hash & (decisions.length - 1);
+    }
+
+}
@@ -1,22 +1,182 @@
 package org.popcraft.lwctrust;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
- * Extremely basic cache implementation using a LinkedHashMap with a maximum cache size.
+ * Thread-safe cache with a maximum cache size. Reads are lock-free, and once the cache is full new entries are
+ * only admitted if they are requested more often than the entry they would replace (TinyLFU).
  */
-public class Cache<K, V> extends LinkedHashMap<K, V> {
+public class Cache<K, V> {
 
-    private int max;
+    private static final int SAMPLE_SIZE = 8;
+
+    private final ConcurrentHashMap<K, V> data = new ConcurrentHashMap<>();
+    private final FrequencySketch sketch;
+    private final Object evictionLock = new Object();
+    private volatile int max;
+    private Iterator<K> evictionCursor;
 
     public Cache(int max) {
-        this.max = max;
+        this.max = Math.max(1, max);
+        this.sketch = new FrequencySketch(this.max);
+    }
+
+    public V get(K key) {
+        V value = data.get(key);
+        if (value != null) {
+            sketch.increment(key);
+        }
+        return value;
+    }
+
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        sketch.increment(key);
+        V value = data.get(key);
+        if (value != null) {
+            return value;
+        }
+        V loaded = loader.apply(key);
+        if (loaded == null || (data.size() >= max && !admit(key))) {
+            return loaded;
+        }
+        V existing = data.putIfAbsent(key, loaded);
+        if (existing != null) {
+            return existing;
+        }
+        evict(key);
+        return loaded;
+    }
+
+    public V put(K key, V value) {
+        sketch.increment(key);
+        V previous = data.put(key, value);
+        if (previous == null) {
+            evict(key);
+        }
+        return previous;
+    }
+
+    public V putIfAbsent(K key, V value) {
+        V existing = data.putIfAbsent(key, value);
+        if (existing == null) {
+            evict(key);
+        }
+        return existing;
+    }
+
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> function) {
+        sketch.increment(key);
+        boolean[] added = new boolean[1];
+        V value = data.compute(key, (k, previous) -> {
+            added[0] = previous == null;
+            return function.apply(k, previous);
+        });
+        if (added[0] && value != null) {
+            evict(key);
+        }
+        return value;
+    }
+
+    /**
+     * Replace a value only if the key is still mapped to the expected value.
+     */
+    public boolean replace(K key, V expected, V value) {
+        sketch.increment(key);
+        return data.replace(key, expected, value);
+    }
+
+    public boolean containsKey(K key) {
+        return data.containsKey(key);
+    }
+
+    public V remove(K key) {
+        return data.remove(key);
+    }
+
+    public int size() {
+        return data.size();
+    }
+
+    public int getMaximumSize() {
+        return max;
+    }
+
+    public void setMaximumSize(int max) {
+        this.max = Math.max(1, max);
+        sketch.ensureCapacity(this.max);
+        evict(null);
+    }
+
+    /**
+     * Get up to a number of cached keys, most frequently used first.
+     */
+    public List<K> hottest(int limit) {
+        // Frequencies are read once up front, since they may change while sorting
+        Map<K, Integer> frequencies = new HashMap<>();
+        data.keySet().forEach(key -> frequencies.put(key, sketch.frequency(key)));
+        List<K> keys = new ArrayList<>(frequencies.keySet());
+        keys.sort(Comparator.comparing(frequencies::get, Comparator.reverseOrder()));
+        return keys.size() > limit ? new ArrayList<>(keys.subList(0, limit)) : keys;
+    }
+
+    public void clear() {
+        data.clear();
+    }
+
+    private boolean admit(K candidate) {
+        synchronized (evictionLock) {
+            K victim = sampleVictim(candidate);
+            return victim == null || sketch.frequency(candidate) > sketch.frequency(victim);
+        }
+    }
+
+    private void evict(K keep) {
+        if (data.size() <= max) {
+            return;
+        }
+        synchronized (evictionLock) {
+            while (data.size() > max) {
+                K victim = sampleVictim(keep);
+                if (victim == null) {
+                    return;
+                }
+                data.remove(victim);
+                onEviction(victim);
+            }
+        }
+    }
+
+    /**
+     * Called after an entry was evicted to keep the cache within its maximum size.
+     */
+    protected void onEviction(K key) {
     }
 
-    @Override
-    protected boolean removeEldestEntry(Map.Entry eldest) {
-        return this.size() > this.max;
+    // Look at the next few keys in iteration order and pick the one that is least frequently used
+    private K sampleVictim(K exclude) {
+        K victim = null;
+        int victimFrequency = Integer.MAX_VALUE;
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            if (evictionCursor == null || !evictionCursor.hasNext()) {
+                evictionCursor = data.keySet().iterator();
+                if (!evictionCursor.hasNext()) {
+                    break;
+                }
+            }
+            K key = evictionCursor.next();
+            if (key.equals(exclude)) {
+                continue;
+            }
+            int frequency = sketch.frequency(key);
+            if (frequency < victimFrequency) {
+                victim = key;
+                victimFrequency = frequency;
+            }
+        }
+        return victim;
     }
 
 }
@@ -0,0 +1,78 @@
+package org.popcraft.lwctrust;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+/**
+ * Watches the plugin folder and runs a reload whenever the configuration or a locale file changes. Editors often
+ * write a file in several steps, so changes are collected for a short while before reloading once.
+ */
+public class ConfigWatcher {
+
+    private static final long SETTLE_MILLIS = 500;
+
+    private final Path directory;
+    private final Runnable reload;
+    private WatchService watchService;
+
+    public ConfigWatcher(Path directory, Runnable reload) {
+        this.directory = directory;
+        this.reload = reload;
+    }
+
+    public void start() throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread thread = new Thread(this::watch, "LWCTrust Config Watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                if (!isRelevant(watchService.take())) {
+                    continue;
+                }
+                Thread.sleep(SETTLE_MILLIS);
+                WatchKey key;
+                while ((key = watchService.poll()) != null) {
+                    isRelevant(key);
+                }
+                reload.run();
+            }
+        } catch (ClosedWatchServiceException e) {
+            // The plugin is disabling
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean isRelevant(WatchKey key) {
+        boolean relevant = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (!(event.context() instanceof Path)) {
+                continue;
+            }
+            String name = ((Path) event.context()).getFileName().toString();
+            if ("config.yml".equals(name) || name.startsWith("locale_") && name.endsWith(".properties")) {
+                relevant = true;
+            }
+        }
+        key.reset();
+        return relevant;
+    }
+
+}
@@ -0,0 +1,89 @@
+package org.popcraft.lwctrust;
+
+/**
+ * Count-min sketch of 4-bit counters used to estimate how often a key is accessed. Counters are halved
+ * periodically so that old popularity fades. Updates are deliberately unsynchronized, since an occasional
+ * lost increment only makes the estimate slightly less accurate.
+ */
+class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private volatile long[] table;
+    private int sampleSize;
+    private int additions;
+
+    FrequencySketch(int maximumSize) {
+        ensureCapacity(maximumSize);
+    }
+
+    void ensureCapacity(int maximumSize) {
+        int capacity = Math.max(8, Integer.highestOneBit(Math.max(1, maximumSize) - 1) << 1);
+        if (table != null && table.length >= capacity) {
+            return;
+        }
+        this.table = new long[capacity];
+        this.sampleSize = 10 * Math.max(1, maximumSize);
+        this.additions = 0;
+    }
+
+    int frequency(Object key) {
+        long[] table = this.table;
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = 15;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(table, hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    void increment(Object key) {
+        long[] table = this.table;
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(table, indexOf(table, hash, i), start + i);
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(long[] table, int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    private void reset() {
+        long[] table = this.table;
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions = additions >>> 1;
+    }
+
+    private static int indexOf(long[] table, int hash, int row) {
+        long value = (hash + SEEDS[row]) * SEEDS[row];
+        value += value >>> 32;
+        return ((int) value) & (table.length - 1);
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+}
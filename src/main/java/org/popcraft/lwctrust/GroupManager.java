@@ -0,0 +1,226 @@
+package org.popcraft.lwctrust;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import org.popcraft.lwctrust.storage.Files2;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Trust groups, and the expansion of owners' trusts to include the members of the groups they trust. Expansions
+ * are computed once per trust set and patched when group members change, so an access check is still a single
+ * set lookup.
+ */
+public class GroupManager {
+
+    private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,32}");
+
+    private final File file;
+    private final TrustCache trustCache;
+    private final Gson gson = new Gson();
+    private final Map<UUID, TrustGroup> groups = new ConcurrentHashMap<>();
+    private final Map<String, TrustGroup> groupsByName = new ConcurrentHashMap<>();
+    private final Cache<UUID, Expansion> expansions;
+
+    public GroupManager(File file, TrustCache trustCache, int cacheSize) {
+        this.file = file;
+        this.trustCache = trustCache;
+        this.expansions = new Cache<>(cacheSize);
+    }
+
+    public void setCacheSize(int cacheSize) {
+        expansions.setMaximumSize(cacheSize);
+    }
+
+    public synchronized void load() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        List<StoredGroup> stored;
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            stored = gson.fromJson(reader, new TypeToken<List<StoredGroup>>() {
+            }.getType());
+        } catch (JsonParseException e) {
+            throw new IOException("Unable to parse file " + file, e);
+        }
+        if (stored != null) {
+            stored.forEach(group -> put(new TrustGroup(group.id, group.name, group.creator,
+                    TrustSet.of(group.members))));
+        }
+    }
+
+    public synchronized void save() throws IOException {
+        List<StoredGroup> stored = groups.values().stream().map(StoredGroup::new).collect(Collectors.toList());
+        Path target = file.toPath();
+        Path temporary = target.resolveSibling(file.getName() + ".tmp");
+        Files.write(temporary, gson.toJson(stored).getBytes(StandardCharsets.UTF_8));
+        Files2.replaceAtomically(temporary, target);
+    }
+
+    public static boolean isValidName(String name) {
+        return NAME_PATTERN.matcher(name).matches();
+    }
+
+    public boolean isEmpty() {
+        return groups.isEmpty();
+    }
+
+    public TrustGroup getGroup(UUID id) {
+        return groups.get(id);
+    }
+
+    public TrustGroup getGroup(String name) {
+        return groupsByName.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    public List<TrustGroup> getGroupsCreatedBy(UUID creator) {
+        return groups.values().stream().filter(group -> group.getCreator().equals(creator))
+                .sorted(Comparator.comparing(TrustGroup::getName, String.CASE_INSENSITIVE_ORDER))
+                .collect(Collectors.toList());
+    }
+
+    public List<TrustGroup> getGroupsWithMember(UUID member) {
+        return groups.values().stream().filter(group -> group.getMembers().contains(member))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Create a new group, returning null if the name is already taken.
+     */
+    public synchronized TrustGroup create(String name, UUID creator) {
+        if (getGroup(name) != null) {
+            return null;
+        }
+        TrustGroup group = new TrustGroup(UUID.randomUUID(), name, creator, TrustSet.empty());
+        put(group);
+        return group;
+    }
+
+    /**
+     * Delete a group. Owners who trusted it keep its id in their trusts, but it no longer trusts anyone.
+     */
+    public synchronized void delete(TrustGroup group) {
+        groups.remove(group.getId());
+        groupsByName.remove(group.getName().toLowerCase(Locale.ROOT), group);
+        membersChanged(group, null);
+    }
+
+    public synchronized TrustGroup addMembers(TrustGroup group, Collection<UUID> added) {
+        TrustGroup current = groups.get(group.getId());
+        if (current == null) {
+            return null;
+        }
+        TrustGroup updated = current.withMembers(current.getMembers().with(added));
+        put(updated);
+        membersChanged(updated, added);
+        return updated;
+    }
+
+    public synchronized TrustGroup removeMembers(TrustGroup group, Collection<UUID> removed) {
+        TrustGroup current = groups.get(group.getId());
+        if (current == null) {
+            return null;
+        }
+        TrustGroup updated = current.withMembers(current.getMembers().without(removed));
+        put(updated);
+        membersChanged(updated, null);
+        return updated;
+    }
+
+    /**
+     * Get an owner's trusts together with the members of every group they trust.
+     */
+    public TrustSet expand(UUID owner, TrustSet trusts) {
+        if (groups.isEmpty()) {
+            return trusts;
+        }
+        Expansion expansion = expansions.get(owner);
+        if (expansion != null && expansion.trusts == trusts) {
+            return expansion.expanded;
+        }
+        // Computed under the lock, so that a concurrent membership change can't leave a stale expansion behind
+        synchronized (this) {
+            TrustSet expanded = computeExpansion(trusts);
+            expansions.put(owner, new Expansion(trusts, expanded));
+            return expanded;
+        }
+    }
+
+    private TrustSet computeExpansion(TrustSet trusts) {
+        List<UUID> members = null;
+        for (UUID uuid : trusts) {
+            TrustGroup group = groups.get(uuid);
+            if (group != null && !group.getMembers().isEmpty()) {
+                if (members == null) {
+                    members = new ArrayList<>();
+                }
+                members.addAll(group.getMembers().toList());
+            }
+        }
+        return members == null ? trusts : trusts.with(members);
+    }
+
+    // Patch the expansions of owners who trust a group, either adding its new members or recomputing them
+    private void membersChanged(TrustGroup group, Collection<UUID> added) {
+        ReverseTrustIndex reverseIndex = trustCache.getReverseIndex();
+        if (reverseIndex == null || !reverseIndex.isReady()) {
+            // Without a complete reverse index the affected owners are unknown
+            expansions.clear();
+            trustCache.advanceAllEpochs();
+            return;
+        }
+        Set<UUID> owners = reverseIndex.getOwners(group.getId());
+        for (UUID owner : owners) {
+            Expansion expansion = expansions.get(owner);
+            if (expansion != null) {
+                TrustSet expanded = added == null ? computeExpansion(expansion.trusts)
+                        : expansion.expanded.with(added);
+                expansions.put(owner, new Expansion(expansion.trusts, expanded));
+            }
+        }
+        trustCache.advanceEpochs(owners);
+    }
+
+    private void put(TrustGroup group) {
+        groups.put(group.getId(), group);
+        groupsByName.put(group.getName().toLowerCase(Locale.ROOT), group);
+    }
+
+    private static final class Expansion {
+
+        private final TrustSet trusts;
+        private final TrustSet expanded;
+
+        private Expansion(TrustSet trusts, TrustSet expanded) {
+            this.trusts = trusts;
+            this.expanded = expanded;
+        }
+
+    }
+
+    // Layout of a group in the groups file
+    private static final class StoredGroup {
+
+        private UUID id;
+        private String name;
+        private UUID creator;
+        private List<UUID> members;
+
+        private StoredGroup(TrustGroup group) {
+            this.id = group.getId();
+            this.name = group.getName();
+            this.creator = group.getCreator();
+            this.members = group.getMembers().toList();
+        }
+
+    }
+
+}
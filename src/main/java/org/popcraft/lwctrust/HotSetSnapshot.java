@@ -0,0 +1,135 @@
+package org.popcraft.lwctrust;
+
+import org.popcraft.lwctrust.storage.TrustStorage;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Snapshot of the most frequently used owners in the trust cache, saved on shutdown so that the cache can be
+ * warmed in the background on the next startup. Like the mapped index, the header records the generation of the
+ * storage the snapshot was taken from, so included trusts are only used if storage did not change in between.
+ */
+public class HotSetSnapshot {
+
+    private static final int MAGIC = 0x4c575448;
+    private static final int VERSION = 2;
+    private static final int CHUNK_SIZE = 64;
+
+    private final File file;
+
+    public HotSetSnapshot(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Write the cache's hottest owners, and optionally their trusts so that warming needs no storage reads. Storage
+     * has to have every change by then, so it should be closed first.
+     */
+    public int save(TrustCache trustCache, boolean includeTrusts, long generation) throws IOException {
+        List<UUID> hottest = trustCache.hottest(trustCache.getMaximumSize());
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(generation);
+            output.writeBoolean(includeTrusts);
+            output.writeInt(hottest.size());
+            for (UUID owner : hottest) {
+                writeUuid(output, owner);
+                if (includeTrusts) {
+                    TrustSet trusts = trustCache.get(owner);
+                    List<UUID> trusted = trusts == null ? Collections.emptyList() : trusts.toList();
+                    output.writeInt(trusted.size());
+                    for (UUID uuid : trusted) {
+                        writeUuid(output, uuid);
+                    }
+                }
+            }
+        }
+        return hottest.size();
+    }
+
+    /**
+     * Load the snapshot into the cache in parallel chunks, stopping once the time budget is used up. Included
+     * trusts are only used if allowed and storage is still at the generation the snapshot was saved with, otherwise
+     * their owners are loaded from storage like the rest. The returned future completes with the number of owners
+     * warmed.
+     */
+    public CompletableFuture<Integer> warm(TrustCache trustCache, TrustStorage storage, Executor executor,
+                                           long budgetMillis, boolean useTrusts) {
+        Map<UUID, TrustSet> included = new LinkedHashMap<>();
+        List<UUID> owners = new ArrayList<>();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                return CompletableFuture.completedFuture(0);
+            }
+            long generation = input.readLong();
+            boolean includeTrusts = input.readBoolean();
+            int count = input.readInt();
+            for (int i = 0; i < count; ++i) {
+                UUID owner = readUuid(input);
+                if (includeTrusts) {
+                    int trusted = input.readInt();
+                    List<UUID> trusts = new ArrayList<>(trusted);
+                    for (int j = 0; j < trusted; ++j) {
+                        trusts.add(readUuid(input));
+                    }
+                    included.put(owner, TrustSet.of(trusts));
+                } else {
+                    owners.add(owner);
+                }
+            }
+            if (!included.isEmpty() && (!useTrusts || generation != storage.getGeneration())) {
+                // Storage changed while the server was down, so the included trusts may have been revoked since
+                owners.addAll(0, included.keySet());
+                included.clear();
+            }
+        } catch (FileNotFoundException e) {
+            return CompletableFuture.completedFuture(0);
+        } catch (IOException e) {
+            CompletableFuture<Integer> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        } finally {
+            // A snapshot is only used once, since it goes stale as soon as trusts change
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException ignored) {
+                // Warming is best effort
+            }
+        }
+        AtomicInteger warmed = new AtomicInteger(trustCache.warm(included));
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        List<CompletableFuture<Void>> chunks = new ArrayList<>();
+        for (int from = 0; from < owners.size(); from += CHUNK_SIZE) {
+            List<UUID> chunk = owners.subList(from, Math.min(owners.size(), from + CHUNK_SIZE));
+            chunks.add(CompletableFuture.runAsync(() -> {
+                if (System.nanoTime() > deadline) {
+                    return;
+                }
+                try {
+                    warmed.addAndGet(trustCache.warm(storage.loadAll(chunk)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+        }
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> warmed.get());
+    }
+
+    private static void writeUuid(DataOutputStream output, UUID uuid) throws IOException {
+        output.writeLong(uuid.getMostSignificantBits());
+        output.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(DataInputStream input) throws IOException {
+        return new UUID(input.readLong(), input.readLong());
+    }
+
+}
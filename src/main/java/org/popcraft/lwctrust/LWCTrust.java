@@ -1,28 +1,51 @@
 package org.popcraft.lwctrust;
 
 import com.griefcraft.lwc.LWC;
-import org.apache.commons.lang.StringUtils;
 import org.bukkit.Bukkit;
-import org.bukkit.ChatColor;
-import org.bukkit.OfflinePlayer;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
-import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.popcraft.lwctrust.locale.FileResourceLoader;
-import org.popcraft.lwctrust.locale.UTF8Control;
+import org.popcraft.lwctrust.locale.Messages;
+import org.popcraft.lwctrust.profile.BukkitProfileSource;
+import org.popcraft.lwctrust.profile.NameResolver;
+import org.popcraft.lwctrust.profile.NameTable;
+import org.popcraft.lwctrust.storage.BinaryTrustStorage;
+import org.popcraft.lwctrust.storage.JsonTrustStorage;
+import org.popcraft.lwctrust.storage.LogTrustStorage;
+import org.popcraft.lwctrust.storage.MappedTrustIndex;
+import org.popcraft.lwctrust.storage.OrSetTrustStorage;
+import org.popcraft.lwctrust.storage.SqlTrustStorage;
+import org.popcraft.lwctrust.storage.TrustStorage;
+import org.popcraft.lwctrust.sync.DirectoryBus;
+import org.popcraft.lwctrust.sync.InvalidationBus;
+import org.popcraft.lwctrust.sync.TrustSync;
 
 import java.io.File;
-import java.io.InputStream;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.*;
-import java.util.regex.Matcher;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 public final class LWCTrust extends JavaPlugin {
 
-    private ResourceBundle defaultBundle, localeBundle;
-    private TrustCache trustCache, confirmCache;
+    private volatile Settings settings;
+    private ConfigWatcher configWatcher;
+    private TrustStorage trustStorage;
+    private TrustCache trustCache;
+    private Cache<UUID, PendingTrust> confirmCache;
+    private TrustExpiries trustExpiries;
+    private NameTable nameTable;
+    private NameResolver nameResolver;
+    private TrustCommand trustCommand;
+    private GroupManager groupManager;
+    private ExecutorService ioExecutor;
+    private ExecutorService accessExecutor;
     private Metrics metrics;
 
     @Override
@@ -36,190 +59,497 @@ public final class LWCTrust extends JavaPlugin {
             //noinspection ResultOfMethodCallIgnored
             trustDirectory.mkdir();
         }
-        // Load locales
-        String locale = this.getConfig().getString("locale", "en");
-        File messageFile = new File(this.getDataFolder() + File.separator +
-                "locale_" + locale + ".properties");
-        InputStream localeResource = this.getResource("locale_" + locale + ".properties");
-        // Default locale is English
-        this.defaultBundle = ResourceBundle.getBundle("locale", Locale.ENGLISH, new UTF8Control());
-        if (messageFile.exists()) {
-            // Load a custom provided locale file from the plugin folder
-            this.localeBundle = ResourceBundle.getBundle("locale", new Locale(locale),
-                    new FileResourceLoader(this), new UTF8Control());
-        } else if (localeResource != null) {
-            // Load another valid locale that is included with the plugin
-            this.localeBundle = ResourceBundle.getBundle("locale", new Locale(locale),
-                    new UTF8Control());
-        } else {
-            // Fall back to the default locale
-            this.localeBundle = this.defaultBundle;
-        }
+        // Load the settings and locales which can be reloaded later
+        this.settings = Settings.load(this, this.getConfig());
+        // Set up the executor used for file I/O
+        int ioThreads = Math.max(1, this.getConfig().getInt("io-threads", 2));
+        AtomicInteger threadCount = new AtomicInteger();
+        this.ioExecutor = Executors.newFixedThreadPool(ioThreads, runnable -> {
+            Thread thread = new Thread(runnable, "LWCTrust I/O #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Access checks load trusts on their own threads, so they never wait behind saves and other file I/O
+        int accessThreads = Math.max(1, this.getConfig().getInt("access-threads", 2));
+        AtomicInteger accessThreadCount = new AtomicInteger();
+        this.accessExecutor = Executors.newFixedThreadPool(accessThreads, runnable -> {
+            Thread thread = new Thread(runnable, "LWCTrust Access #" + accessThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long loadTimeout = this.getConfig().getLong("load-timeout", 2);
+        // Set up the storage engine
+        this.trustStorage = createStorage(trustDirectory);
         // Set up caches used by the plugin
-        int cacheSize = this.getConfig().getInt("cache-size", 1000);
-        this.trustCache = new TrustCache(this, cacheSize);
-        this.confirmCache = new TrustCache(this, cacheSize);
+        int cacheSize = settings.getCacheSize();
+        this.trustCache = new TrustCache(this.getLogger(), cacheSize, trustStorage, ioExecutor);
+        if (this.getConfig().getBoolean("jfr-events", false)) {
+            trustCache.setEvents(TrustEvents.create(this.getLogger()));
+        }
+        if (this.getConfig().getBoolean("write-behind", false)) {
+            trustCache.enableWriteBehind(this.getConfig().getLong("flush-interval", 5000),
+                    this.getConfig().getInt("flush-batch-size", 100));
+        }
+        if (this.getConfig().getBoolean("binary-index", false)) {
+            setUpIndex();
+        }
+        setUpReverseIndex();
+        setUpSync();
+        if (this.getConfig().getBoolean("owner-filter", true)) {
+            OwnerFilter ownerFilter = new OwnerFilter();
+            trustCache.setOwnerFilter(ownerFilter);
+            Bukkit.getScheduler().runTaskAsynchronously(this, () -> {
+                try {
+                    ownerFilter.build(trustStorage);
+                } catch (IOException e) {
+                    this.getLogger().warning("Unable to build owner filter: " + e);
+                }
+            });
+        }
+        this.confirmCache = new Cache<>(cacheSize);
+        setUpNameResolver();
+        this.groupManager = new GroupManager(new File(this.getDataFolder(), "groups.json"), trustCache, cacheSize);
+        try {
+            groupManager.load();
+        } catch (IOException e) {
+            this.getLogger().warning("Unable to load trust groups: " + e);
+        }
+        this.trustExpiries = new TrustExpiries(new File(this.getDataFolder(), "expiries.dat"));
+        try {
+            trustExpiries.load();
+        } catch (IOException e) {
+            this.getLogger().warning("Unable to load trust expiries: " + e);
+        }
+        // Timed trusts only append their change to a journal, which is folded into the file now and then
+        long expirySaveInterval = 20L * Math.max(1, this.getConfig().getLong("expiry-save-interval", 300));
+        Bukkit.getScheduler().runTaskTimerAsynchronously(this, () -> {
+            try {
+                trustExpiries.save();
+            } catch (IOException e) {
+                this.getLogger().warning("Unable to save trust expiries: " + e);
+            }
+        }, expirySaveInterval, expirySaveInterval);
+        this.trustCommand = new TrustCommand(this);
+        // Drop timed out confirmations and expired trusts every second
+        Bukkit.getScheduler().runTaskTimerAsynchronously(this,
+                () -> trustCommand.expire(System.currentTimeMillis()), 20L, 20L);
+        if (this.getConfig().getBoolean("warm-start", true)) {
+            warmCache();
+        }
         // Hook into LWC
         try {
-            LWC.getInstance().getModuleLoader().registerModule(this, new TrustModule(this));
+            LWC.getInstance().getModuleLoader().registerModule(this, new TrustModule(this.getLogger(),
+                    trustCache, groupManager, accessExecutor, loadTimeout,
+                    this.getConfig().getInt("access-cache-size", 4096)));
         } catch (NoClassDefFoundError e) {
             this.getLogger().severe(getMessage("error.nolwc"));
             this.getLogger().severe(getMessage("url.lwc"));
             this.setEnabled(false);
+            return;
         }
+        // Prefetch trusts when players join
+        this.getServer().getPluginManager().registerEvents(new TrustListener(this), this);
         // Enable bStats metrics
         int pluginId = 6614;
         this.metrics = new Metrics(this, pluginId);
+        TrustStats stats = trustCache.getStats();
+        metrics.addCustomChart(new Metrics.SingleLineChart("cache_hit_rate",
+                () -> (int) Math.round(stats.getHitRate())));
+        metrics.addCustomChart(new Metrics.SingleLineChart("access_check_p99_us",
+                () -> (int) Math.round(stats.getAccessLatency().getPercentileMillis(99) * 1000)));
+        metrics.addCustomChart(new Metrics.AdvancedPie("trust_lookups", () -> {
+            Map<String, Integer> lookups = new HashMap<>();
+            lookups.put("Cache hit", (int) Math.min(Integer.MAX_VALUE, stats.getHits()));
+            lookups.put("Storage read", (int) Math.min(Integer.MAX_VALUE, stats.getMisses()));
+            lookups.put("Owner filter", (int) Math.min(Integer.MAX_VALUE, stats.getFiltered()));
+            lookups.put("Binary index", (int) Math.min(Integer.MAX_VALUE, stats.getIndexed()));
+            return lookups;
+        }));
+        WriteBehindQueue writeBehindQueue = trustCache.getWriteBehindQueue();
+        if (writeBehindQueue != null) {
+            metrics.addCustomChart(new Metrics.SingleLineChart("write_queue_depth",
+                    writeBehindQueue::getQueueDepth));
+            metrics.addCustomChart(new Metrics.SingleLineChart("flush_latency_ms",
+                    () -> (int) Math.round(writeBehindQueue.getAverageFlushMillis())));
+        }
+        // Reload automatically when the configuration or locales are edited
+        if (this.getConfig().getBoolean("watch-config", false)) {
+            this.configWatcher = new ConfigWatcher(this.getDataFolder().toPath(), () -> reload()
+                    .whenComplete((reloaded, throwable) -> {
+                        if (throwable != null) {
+                            this.getLogger().warning("Unable to reload configuration: " + throwable.getMessage());
+                        } else {
+                            this.getLogger().info("Reloaded configuration and locales");
+                        }
+                    }));
+            try {
+                configWatcher.start();
+            } catch (IOException e) {
+                this.getLogger().warning("Unable to watch configuration for changes: " + e);
+            }
+        }
     }
 
     @Override
-    @SuppressWarnings("deprecation")
-    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
-        // Only players can trust
-        if (args.length < 1 || !(sender instanceof Player)) {
-            sender.sendMessage(getMessage("trust.description"));
-            return false;
-        }
-        boolean confirm = this.getConfig().getBoolean("confirm-action", true);
-        Player player = (Player) sender;
-        UUID playerUniqueId = player.getUniqueId();
-        if ("add".equalsIgnoreCase(args[0]) && player.hasPermission("lwctrust.trust.add")) {
-            // Get a list of existing unique players to add from the arguments
-            List<UUID> toTrust = new ArrayList<>();
-            Arrays.stream(args).forEach(a -> {
-                OfflinePlayer offlinePlayer = Bukkit.getOfflinePlayer(a);
-                if (offlinePlayer.hasPlayedBefore() || offlinePlayer.isOnline()
-                        && !toTrust.contains(offlinePlayer.getUniqueId())) {
-                    toTrust.add(offlinePlayer.getUniqueId());
-                }
-            });
-            if (confirm) {
-                // If we need to confirm, just add these to the confirmation cache
-                confirmCache.put(playerUniqueId, toTrust);
-                player.sendMessage(getMessage("trust.add.confirm"));
-            } else {
-                // Otherwise we are just going to directly save any new players to the player's trusts
-                List<UUID> trusted = trustCache.load(playerUniqueId);
-                toTrust.forEach(uuid -> {
-                    if (!trusted.contains(uuid)) {
-                        trusted.add(uuid);
-                    }
-                    player.sendMessage(getMessage("trust.add", Bukkit.getOfflinePlayer(uuid).getName()));
-                    Player onlinePlayer = Bukkit.getPlayer(uuid);
-                    if (onlinePlayer != null) {
-                        onlinePlayer.sendMessage(getMessage("trust.add.notify", player.getName()));
-                    }
-                });
-                trustCache.save(playerUniqueId);
-            }
-        } else if ("remove".equalsIgnoreCase(args[0]) && player.hasPermission("lwctrust.trust.remove")) {
-            // Load a player's trusts, remove any players matching the arguments, and save
-            List<UUID> trusted = trustCache.load(playerUniqueId);
-            Arrays.stream(args, 1, args.length).forEach(a -> {
-                OfflinePlayer offlinePlayer = Bukkit.getOfflinePlayer(a);
-                trusted.remove(offlinePlayer.getUniqueId());
-                player.sendMessage(getMessage("trust.remove", offlinePlayer.getName()));
-                Player onlinePlayer = offlinePlayer.getPlayer();
-                if (onlinePlayer != null) {
-                    onlinePlayer.sendMessage(getMessage("trust.remove.notify", player.getName()));
+    public void onDisable() {
+        // Stop timers first so nothing new is submitted to the executors below
+        Bukkit.getScheduler().cancelTasks(this);
+        if (configWatcher != null) {
+            try {
+                configWatcher.close();
+            } catch (IOException e) {
+                this.getLogger().warning("Unable to stop configuration watcher: " + e.getMessage());
+            }
+        }
+        if (accessExecutor != null) {
+            // Access checks only read, so there is nothing to wait for
+            accessExecutor.shutdownNow();
+        }
+        // Commands still queued for an owner may change trusts, so they finish before anything is flushed
+        if (ioExecutor != null) {
+            ioExecutor.shutdown();
+            try {
+                if (!ioExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                    ioExecutor.shutdownNow();
                 }
-            });
-            trustCache.save(playerUniqueId);
-        } else if ("list".equalsIgnoreCase(args[0]) && player.hasPermission("lwctrust.trust.list")) {
-            // Load a player's trusts and send them a list
-            List<UUID> trusted = trustCache.load(playerUniqueId);
-            if (trusted.isEmpty()) {
-                player.sendMessage(getMessage("trust.list.empty"));
-            } else {
-                List<String> playerNames = trusted.stream()
-                        .map(uuid -> Bukkit.getOfflinePlayer(uuid).getName()).collect(Collectors.toList());
-                player.sendMessage(getMessage("trust.list", StringUtils.join(playerNames, ", ")));
-            }
-        } else if ("confirm".equalsIgnoreCase(args[0])) {
-            // Add any trusts from pending confirmations, if any
-            if (confirmCache.containsKey(playerUniqueId)) {
-                List<UUID> trusted = trustCache.load(playerUniqueId);
-                confirmCache.get(playerUniqueId).forEach(uuid -> {
-                    if (!trusted.contains(uuid)) {
-                        trusted.add(uuid);
-                    }
-                    player.sendMessage(getMessage("trust.add", Bukkit.getOfflinePlayer(uuid).getName()));
-                    Player onlinePlayer = Bukkit.getPlayer(uuid);
-                    if (onlinePlayer != null) {
-                        onlinePlayer.sendMessage(getMessage("trust.add.notify", player.getName()));
+            } catch (InterruptedException e) {
+                ioExecutor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Publishes whatever those commands changed before the write-behind queue is drained
+        if (trustCache != null && trustCache.getSync() != null) {
+            try {
+                trustCache.getSync().close();
+            } catch (IOException e) {
+                this.getLogger().warning("Unable to stop trust sync: " + e.getMessage());
+            }
+        }
+        if (trustCache != null && trustCache.getWriteBehindQueue() != null) {
+            long start = System.nanoTime();
+            int written = trustCache.drain();
+            this.getLogger().info(String.format("Flushed %d pending trusts in %.1f ms",
+                    written, (System.nanoTime() - start) / 1e6));
+        }
+        if (nameTable != null) {
+            try {
+                nameTable.save();
+            } catch (IOException e) {
+                this.getLogger().warning("Unable to save name table: " + e.getMessage());
+            }
+        }
+        if (trustExpiries != null) {
+            try {
+                trustExpiries.save();
+            } catch (IOException e) {
+                this.getLogger().warning("Unable to save trust expiries: " + e.getMessage());
+            }
+        }
+        if (trustCache != null && trustCache.getReverseIndex() != null) {
+            try {
+                trustCache.getReverseIndex().close();
+            } catch (IOException e) {
+                this.getLogger().warning("Unable to save reverse trust index: " + e.getMessage());
+            }
+        }
+        if (trustStorage != null) {
+            try {
+                trustStorage.close();
+            } catch (IOException e) {
+                this.getLogger().warning("Unable to close trust storage: " + e.getMessage());
+            }
+        }
+        // Written after storage, which may still write on close, so both record its final generation
+        if (trustCache != null && trustCache.getIndex() != null) {
+            try {
+                trustCache.getIndex().close(trustStorage.getGeneration());
+            } catch (IOException e) {
+                this.getLogger().warning("Unable to save trust index: " + e.getMessage());
+            }
+        }
+        if (trustCache != null && this.getConfig().getBoolean("warm-start", true)) {
+            try {
+                new HotSetSnapshot(new File(this.getDataFolder(), "hot.dat")).save(trustCache,
+                        this.getConfig().getBoolean("warm-start-trusts", false), trustStorage.getGeneration());
+            } catch (IOException e) {
+                this.getLogger().warning("Unable to save hot trust snapshot: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Re-read the configuration and locales off the main thread, then publish them and resize the caches in place.
+     * Settings which are not part of {@link Settings} still need a restart.
+     */
+    public CompletableFuture<Settings> reload() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return Settings.reload(this);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, ioExecutor).thenApply(reloaded -> {
+            this.settings = reloaded;
+            // Resizing keeps cached entries, only evicting the least used ones if the cache shrinks
+            trustCache.setMaximumSize(reloaded.getCacheSize());
+            confirmCache.setMaximumSize(reloaded.getCacheSize());
+            groupManager.setCacheSize(reloaded.getCacheSize());
+            trustCommand.setCacheSize(reloaded.getCacheSize());
+            if (trustStorage instanceof OrSetTrustStorage) {
+                ((OrSetTrustStorage) trustStorage).setCacheSize(reloaded.getCacheSize());
+            }
+            if (this.isEnabled()) {
+                Bukkit.getScheduler().runTask(this, this::reloadConfig);
+            }
+            return reloaded;
+        });
+    }
+
+    private void warmCache() {
+        long start = System.nanoTime();
+        long budget = this.getConfig().getLong("warm-start-budget", 5000);
+        // Other servers change shared storage while this one runs, so saved trusts could be stale at any time
+        boolean useTrusts = trustCache.getSync() == null && !(trustStorage instanceof OrSetTrustStorage);
+        new HotSetSnapshot(new File(this.getDataFolder(), "hot.dat"))
+                .warm(trustCache, trustStorage, ioExecutor, budget, useTrusts)
+                .whenComplete((warmed, throwable) -> {
+                    if (throwable != null) {
+                        this.getLogger().warning("Unable to warm trust cache: " + throwable.getMessage());
+                    } else if (warmed > 0) {
+                        this.getLogger().info(String.format("Warmed %d trusts in %.1f ms",
+                                warmed, (System.nanoTime() - start) / 1e6));
                     }
                 });
-                confirmCache.remove(playerUniqueId);
-                trustCache.save(playerUniqueId);
-            } else {
-                player.sendMessage(getMessage("trust.confirm.empty"));
+    }
+
+    private void setUpNameResolver() {
+        this.nameTable = new NameTable(new File(this.getDataFolder(), "names.dat"));
+        this.nameResolver = new NameResolver(new BukkitProfileSource(), nameTable, ioExecutor,
+                this.getConfig().getInt("name-cache-size", 1000));
+        ioExecutor.execute(() -> {
+            try {
+                nameTable.load();
+            } catch (IOException e) {
+                this.getLogger().warning("Unable to load name table: " + e);
             }
-        } else if ("cancel".equalsIgnoreCase(args[0])) {
-            // Cancel pending trust confirmations, if any
-            if (confirmCache.containsKey(playerUniqueId)) {
-                confirmCache.remove(playerUniqueId);
-                player.sendMessage(getMessage("trust.cancel"));
-            } else {
-                player.sendMessage(getMessage("trust.confirm.empty"));
+        });
+        // Save newly seen names now and then rather than only on shutdown, which a crash would skip
+        long interval = 20L * Math.max(1, this.getConfig().getLong("name-save-interval", 300));
+        Bukkit.getScheduler().runTaskTimerAsynchronously(this, () -> {
+            try {
+                nameTable.save();
+            } catch (IOException e) {
+                this.getLogger().warning("Unable to save name table: " + e);
             }
+        }, interval, interval);
+    }
+
+    // Keep caches in step with other servers sharing the same trust storage
+    private void setUpSync() {
+        String transport = this.getConfig().getString("sync", "none").toLowerCase(Locale.ROOT);
+        InvalidationBus bus;
+        if ("none".equals(transport)) {
+            return;
+        } else if ("directory".equals(transport)) {
+            bus = new DirectoryBus(this.getDataFolder().toPath().resolve(
+                    this.getConfig().getString("sync-directory", "sync")), this.getLogger(),
+                    this.getConfig().getLong("sync-poll-interval", 500), TimeUnit.MINUTES.toMillis(1));
         } else {
-            sender.sendMessage(getMessage("trust.description"));
-            return false;
+            this.getLogger().warning("Unknown sync transport " + transport + ", not syncing trusts");
+            return;
+        }
+        TrustSync sync = new TrustSync(this.getLogger(), bus);
+        try {
+            sync.start(trustCache, this.getConfig().getLong("sync-interval", 250));
+            trustCache.setSync(sync);
+        } catch (IOException e) {
+            this.getLogger().warning("Unable to start trust sync: " + e);
         }
-        return true;
     }
 
-    @Override
-    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
-        if (!(sender instanceof Player)) {
-            return Collections.emptyList();
+    private void setUpReverseIndex() {
+        ReverseTrustIndex reverseIndex = new ReverseTrustIndex(new File(this.getDataFolder(), "reverse.idx"));
+        trustCache.setReverseIndex(reverseIndex);
+        try {
+            if (reverseIndex.open()) {
+                return;
+            }
+        } catch (IOException e) {
+            this.getLogger().warning("Unable to open reverse trust index: " + e);
         }
-        Player player = (Player) sender;
-        if (args.length == 1) {
-            List<String> completions = new ArrayList<>();
-            if (player.hasPermission("lwctrust.trust.add")) {
-                completions.add("add");
+        Bukkit.getScheduler().runTaskAsynchronously(this, () -> {
+            try {
+                reverseIndex.build(trustStorage, trustCache::load);
+            } catch (IOException e) {
+                this.getLogger().warning("Unable to build reverse trust index: " + e);
+            }
+        });
+    }
+
+    private void setUpIndex() {
+        MappedTrustIndex index = new MappedTrustIndex(new File(this.getDataFolder(), "trusts.idx"));
+        trustCache.setIndex(index);
+        try {
+            if (!index.open(trustStorage.getGeneration())) {
+                // Build the index from storage for the first time, until then lookups fall back to the cache
+                Bukkit.getScheduler().runTaskAsynchronously(this, () -> {
+                    try {
+                        index.build(trustStorage);
+                    } catch (IOException e) {
+                        this.getLogger().warning("Unable to build trust index: " + e);
+                    }
+                });
             }
-            if (player.hasPermission("lwctrust.trust.remove")) {
-                completions.add("remove");
+        } catch (IOException e) {
+            this.getLogger().warning("Unable to open trust index: " + e);
+        }
+        // Merge saved changes into the index file periodically
+        long interval = 20L * this.getConfig().getLong("index-rebuild-interval", 60);
+        Bukkit.getScheduler().runTaskTimerAsynchronously(this, () -> {
+            try {
+                index.rebuild();
+            } catch (IOException e) {
+                this.getLogger().warning("Unable to rebuild trust index: " + e);
             }
-            if (player.hasPermission("lwctrust.trust.list")) {
-                completions.add("list");
+        }, interval, interval);
+    }
+
+    private TrustStorage createStorage(File trustDirectory) {
+        JsonTrustStorage jsonStorage = new JsonTrustStorage(trustDirectory);
+        String engine = this.getConfig().getString("storage", "json").toLowerCase(Locale.ROOT);
+        if ("json".equals(engine)) {
+            return jsonStorage;
+        }
+        try {
+            if ("orset".equals(engine)) {
+                // Existing trust files are read as they are, so there is nothing to migrate
+                return new OrSetTrustStorage(jsonStorage, this.getDataFolder().toPath()
+                        .resolve(this.getConfig().getString("orset-directory", "trusts-orset")).toFile(),
+                        OrSetTrustStorage.getNodeId(this.getDataFolder()), settings.getCacheSize());
             }
-            if (confirmCache.containsKey(player.getUniqueId())) {
-                completions.addAll(Arrays.asList("confirm", "cancel"));
+            TrustStorage storage;
+            if ("log".equals(engine)) {
+                storage = new LogTrustStorage(new File(this.getDataFolder(), "trusts-log"), ioExecutor,
+                        this.getLogger());
+            } else if ("binary".equals(engine)) {
+                storage = new BinaryTrustStorage(trustDirectory);
+            } else if ("sqlite".equals(engine)) {
+                storage = new SqlTrustStorage(new File(this.getDataFolder(), "trusts.db"));
+            } else {
+                this.getLogger().warning("Unknown storage engine " + engine + ", using JSON files");
+                return jsonStorage;
             }
-            return completions.stream().filter(s -> s.startsWith(args[0])).collect(Collectors.toList());
-        } else if (args.length > 1 && Arrays.asList("add", "remove").contains(args[0])) {
-            return null;
-        } else {
-            return Collections.emptyList();
+            migrate(jsonStorage, storage, engine);
+            return storage;
+        } catch (IOException e) {
+            this.getLogger().severe("Unable to open " + engine + " storage, falling back to JSON files: " + e);
+            return jsonStorage;
+        }
+    }
+
+    // Copy existing trust files into another storage engine the first time it is used
+    private void migrate(TrustStorage from, TrustStorage to, String engine) throws IOException {
+        File marker = new File(this.getDataFolder(), "migrated-" + engine);
+        if (marker.exists()) {
+            return;
+        }
+        Map<UUID, TrustSet> batch = new HashMap<>();
+        int[] migrated = new int[1];
+        IOException[] failure = new IOException[1];
+        from.forEach((owner, trusts) -> {
+            batch.put(owner, trusts);
+            if (batch.size() >= 500 && failure[0] == null) {
+                try {
+                    to.saveAll(batch);
+                    migrated[0] += batch.size();
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+                batch.clear();
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        to.saveAll(batch);
+        migrated[0] += batch.size();
+        Files.write(marker.toPath(), new byte[0]);
+        if (migrated[0] > 0) {
+            this.getLogger().info("Migrated " + migrated[0] + " trust files to " + engine + " storage");
+        }
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        Object event = trustCache.getEvents().beginCommand();
+        boolean handled = trustCommand.onCommand(sender, args);
+        if (event != null) {
+            // Only the time spent on the main thread is recorded, the rest of the command runs asynchronously
+            trustCache.getEvents().commitCommand(event, args.length > 0 ? args[0].toLowerCase(Locale.ROOT) : "",
+                    sender.getName());
         }
+        return handled;
     }
 
-    public static final Pattern RGB_PATTERN = Pattern.compile("&#[0-9a-fA-F]{6}");
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        return trustCommand.onTabComplete(sender, args);
+    }
+
+    public static final Pattern RGB_PATTERN = Messages.RGB_PATTERN;
 
     public String getMessage(String key, Object... args) {
-        String localMessage = localeBundle.containsKey(key)
-                ? localeBundle.getString(key) : defaultBundle.getString(key);
-        String formattedMessage = String.format(localMessage, args);
-        Matcher rgbMatcher = RGB_PATTERN.matcher(formattedMessage);
-        while (rgbMatcher.find()) {
-            String rgbMatch = rgbMatcher.group();
-            String rgbColor = String.valueOf(ChatColor.COLOR_CHAR) + 'x' +
-                    ChatColor.COLOR_CHAR + rgbMatch.charAt(2) +
-                    ChatColor.COLOR_CHAR + rgbMatch.charAt(3) +
-                    ChatColor.COLOR_CHAR + rgbMatch.charAt(4) +
-                    ChatColor.COLOR_CHAR + rgbMatch.charAt(5) +
-                    ChatColor.COLOR_CHAR + rgbMatch.charAt(6) +
-                    ChatColor.COLOR_CHAR + rgbMatch.charAt(7);
-            formattedMessage = formattedMessage.replaceAll(rgbMatch, rgbColor);
-        }
-        return ChatColor.translateAlternateColorCodes('&', formattedMessage);
+        return settings.getMessages().get(key, args);
+    }
+
+    public Settings getSettings() {
+        return settings;
     }
 
     public TrustCache getTrustCache() {
         return trustCache;
     }
 
+    /**
+     * Get the owners who trust a player.
+     */
+    public Set<UUID> getTrustingOwners(UUID trustee) {
+        ReverseTrustIndex reverseIndex = trustCache.getReverseIndex();
+        List<TrustGroup> groups = groupManager.getGroupsWithMember(trustee);
+        if (groups.isEmpty()) {
+            return reverseIndex.getOwners(trustee);
+        }
+        // Include owners who trust the player through a group
+        Set<UUID> owners = new HashSet<>(reverseIndex.getOwners(trustee));
+        groups.forEach(group -> owners.addAll(reverseIndex.getOwners(group.getId())));
+        return Collections.unmodifiableSet(owners);
+    }
+
+    /**
+     * Drop cached trusts of every owner who trusts a player, for example after their data was changed externally.
+     */
+    public void invalidateTrustee(UUID trustee) {
+        trustCache.invalidate(getTrustingOwners(trustee));
+    }
+
+    public Cache<UUID, PendingTrust> getConfirmCache() {
+        return confirmCache;
+    }
+
+    public TrustExpiries getTrustExpiries() {
+        return trustExpiries;
+    }
+
+    public GroupManager getGroupManager() {
+        return groupManager;
+    }
+
+    public NameResolver getNameResolver() {
+        return nameResolver;
+    }
+
+    public ExecutorService getIoExecutor() {
+        return ioExecutor;
+    }
+
 }
@@ -0,0 +1,65 @@
+package org.popcraft.lwctrust;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in fixed power of two buckets from one microsecond to about a second. Recording only
+ * increments a couple of striped counters, so it is cheap enough for the access check.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 22;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; ++i) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        long micros = nanos / 1000;
+        // Bucket i holds latencies below 2^i microseconds, the last bucket holds everything longer
+        int bucket = micros <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets[bucket].increment();
+        count.increment();
+        totalNanos.add(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMeanMillis() {
+        long samples = count.sum();
+        return samples == 0 ? 0 : totalNanos.sum() / 1e6 / samples;
+    }
+
+    /**
+     * Get an upper bound of a percentile in milliseconds, with the resolution of the buckets.
+     */
+    public double getPercentileMillis(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long samples = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            counts[i] = buckets[i].sum();
+            samples += counts[i];
+        }
+        if (samples == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * samples);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return (1L << i) / 1e3;
+            }
+        }
+        return (1L << (BUCKETS - 1)) / 1e3;
+    }
+
+}
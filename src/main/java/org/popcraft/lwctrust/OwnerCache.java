@@ -0,0 +1,55 @@
+package org.popcraft.lwctrust;
+
+import java.util.UUID;
+
+/**
+ * Fixed-size, direct-mapped cache of protection owner strings parsed into unique ids. Owners which are not unique
+ * ids, such as legacy player names, are remembered as well, so they are not parsed again on every access check.
+ * Lookups are a single array probe and never allocate; colliding owners simply replace each other.
+ */
+public class OwnerCache {
+
+    private static final class Owner {
+
+        private final String name;
+        private final UUID uuid;
+
+        private Owner(String name, UUID uuid) {
+            this.name = name;
+            this.uuid = uuid;
+        }
+
+    }
+
+    // Owners only have final fields, so they are safely published without further synchronization
+    private final Owner[] owners;
+
+    public OwnerCache(int size) {
+        this.owners = new Owner[Math.max(16, Integer.highestOneBit(Math.max(1, size) - 1) << 1)];
+    }
+
+    /**
+     * Get the unique id of an owner, or null if the owner is not a unique id.
+     */
+    public UUID resolve(String name) {
+        if (name == null) {
+            return null;
+        }
+        int hash = name.hashCode();
+        int slot = (hash ^ hash >>> 16) & (owners.length - 1);
+        Owner owner = owners[slot];
+        // LWC keeps the same string for a protection, so the reference check usually succeeds
+        if (owner != null && (owner.name == name || owner.name.equals(name))) {
+            return owner.uuid;
+        }
+        UUID uuid;
+        try {
+            uuid = UUID.fromString(name);
+        } catch (IllegalArgumentException e) {
+            uuid = null;
+        }
+        owners[slot] = new Owner(name, uuid);
+        return uuid;
+    }
+
+}
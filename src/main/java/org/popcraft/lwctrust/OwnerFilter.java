@@ -0,0 +1,109 @@
+package org.popcraft.lwctrust;
+
+import org.popcraft.lwctrust.storage.TrustStorage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Counting Bloom filter of owners who have trusts. If the filter does not contain an owner, they definitely trust
+ * no one and there is no need to look at storage or the cache. Until it has been built from storage, the filter
+ * answers that every owner might have trusts.
+ */
+public class OwnerFilter {
+
+    private static final int HASHES = 4;
+    private static final int SLOTS_PER_OWNER = 16;
+    private static final int MIN_SLOTS = 1 << 12;
+
+    private volatile byte[] counters;
+    private final Set<UUID> pending = new HashSet<>();
+
+    public boolean mightContain(UUID owner) {
+        byte[] counters = this.counters;
+        if (counters == null) {
+            return true;
+        }
+        long first = mix(owner.getMostSignificantBits());
+        long second = mix(owner.getLeastSignificantBits()) | 1;
+        int mask = counters.length - 1;
+        for (int i = 0; i < HASHES; ++i) {
+            if (counters[(int) (first + i * second) & mask] == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public synchronized void add(UUID owner) {
+        if (counters == null) {
+            pending.add(owner);
+        } else {
+            increment(counters, owner);
+        }
+    }
+
+    /**
+     * Remove an owner who previously had trusts. Only call this for owners which were added, since removing
+     * anything else could hide other owners.
+     */
+    public synchronized void remove(UUID owner) {
+        if (counters == null) {
+            pending.remove(owner);
+            return;
+        }
+        long first = mix(owner.getMostSignificantBits());
+        long second = mix(owner.getLeastSignificantBits()) | 1;
+        int mask = counters.length - 1;
+        for (int i = 0; i < HASHES; ++i) {
+            int slot = (int) (first + i * second) & mask;
+            // Saturated counters are never decremented, since their true count is unknown
+            if (counters[slot] != 0 && counters[slot] != -1) {
+                --counters[slot];
+            }
+        }
+    }
+
+    public boolean isReady() {
+        return counters != null;
+    }
+
+    /**
+     * Build the filter from the owners in storage. Only owner keys are listed, no trusts are read.
+     */
+    public void build(TrustStorage storage) throws IOException {
+        List<UUID> owners = new ArrayList<>();
+        storage.forEachOwner(owners::add);
+        int slots = Math.max(MIN_SLOTS, Integer.highestOneBit(Math.max(1, owners.size() * SLOTS_PER_OWNER)) << 1);
+        byte[] built = new byte[slots];
+        owners.forEach(owner -> increment(built, owner));
+        synchronized (this) {
+            pending.forEach(owner -> increment(built, owner));
+            pending.clear();
+            this.counters = built;
+        }
+    }
+
+    private static void increment(byte[] counters, UUID owner) {
+        long first = mix(owner.getMostSignificantBits());
+        long second = mix(owner.getLeastSignificantBits()) | 1;
+        int mask = counters.length - 1;
+        for (int i = 0; i < HASHES; ++i) {
+            int slot = (int) (first + i * second) & mask;
+            if (counters[slot] != -1) {
+                ++counters[slot];
+            }
+        }
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+
+}
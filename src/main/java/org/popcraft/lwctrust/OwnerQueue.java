@@ -0,0 +1,40 @@
+package org.popcraft.lwctrust;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Runs asynchronous tasks one after another for the same owner, while tasks of different owners run in parallel.
+ * Owners are spread over a fixed number of stripes, so unrelated owners may occasionally wait on each other.
+ */
+public class OwnerQueue {
+
+    private static final int STRIPES = 64;
+
+    private final Executor executor;
+    private final CompletableFuture<?>[] tails = new CompletableFuture<?>[STRIPES];
+
+    public OwnerQueue(Executor executor) {
+        this.executor = executor;
+        Arrays.fill(tails, CompletableFuture.completedFuture(null));
+    }
+
+    /**
+     * Start a task on the executor once every earlier task of the same stripe has completed, including any
+     * asynchronous work it returned. A failed task does not hold up the tasks after it.
+     */
+    public <T> CompletableFuture<T> submit(UUID owner, Supplier<CompletableFuture<T>> task) {
+        int hash = owner.hashCode();
+        int stripe = (hash ^ (hash >>> 16)) & (STRIPES - 1);
+        synchronized (tails) {
+            CompletableFuture<T> next = tails[stripe].handle((result, throwable) -> null)
+                    .thenComposeAsync(ignored -> task.get(), executor);
+            tails[stripe] = next;
+            return next;
+        }
+    }
+
+}
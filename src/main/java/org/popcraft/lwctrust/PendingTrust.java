@@ -0,0 +1,42 @@
+package org.popcraft.lwctrust;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Trusts waiting for their owner to confirm them, which are dropped if not confirmed before a deadline.
+ */
+public final class PendingTrust {
+
+    private final List<UUID> trusted;
+    private final long duration;
+    private final String durationText;
+    private final long deadline;
+
+    public PendingTrust(List<UUID> trusted, long duration, String durationText, long deadline) {
+        this.trusted = trusted;
+        this.duration = duration;
+        this.durationText = durationText;
+        this.deadline = deadline;
+    }
+
+    public List<UUID> getTrusted() {
+        return trusted;
+    }
+
+    /**
+     * Get how long the trusts last once confirmed in milliseconds, or 0 if they are permanent.
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    public String getDurationText() {
+        return durationText;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+}
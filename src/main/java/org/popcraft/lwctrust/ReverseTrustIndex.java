@@ -0,0 +1,163 @@
+package org.popcraft.lwctrust;
+
+import org.popcraft.lwctrust.storage.Files2;
+import org.popcraft.lwctrust.storage.TrustStorage;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Index from trusted players to the owners who trust them. It is updated with every trust change and saved to a
+ * file on shutdown, so that it only has to be rebuilt from storage after an unclean shutdown.
+ */
+public class ReverseTrustIndex {
+
+    private static final int MAGIC = 0x4c575452;
+    private static final int LOCK_STRIPES = 64;
+
+    private final File file;
+    private final ConcurrentHashMap<UUID, Set<UUID>> owners = new ConcurrentHashMap<>();
+    private final Set<UUID> changed = ConcurrentHashMap.newKeySet();
+    private volatile boolean building = true;
+    // Changes to the same owner take turns with each other and with the build
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    public ReverseTrustIndex(File file) {
+        this.file = file;
+        for (int i = 0; i < LOCK_STRIPES; ++i) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Load the index file, returning false if it was not closed cleanly and has to be rebuilt.
+     */
+    public boolean open() throws IOException {
+        File marker = getCleanMarker();
+        if (!file.exists() || !marker.exists()) {
+            return false;
+        }
+        Files.delete(marker.toPath());
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != MAGIC) {
+                return false;
+            }
+            int count = input.readInt();
+            for (int i = 0; i < count; ++i) {
+                UUID trustee = new UUID(input.readLong(), input.readLong());
+                UUID owner = new UUID(input.readLong(), input.readLong());
+                add(trustee, owner);
+            }
+        }
+        building = false;
+        return true;
+    }
+
+    /**
+     * Rebuild the index from every owner in storage. Owners changed while the build is running are skipped, and
+     * their full current trusts are applied once storage has been read, since only the changes were applied to
+     * them so far.
+     */
+    public void build(TrustStorage storage, Function<UUID, TrustSet> current) throws IOException {
+        try {
+            storage.forEach((owner, trusts) -> {
+                synchronized (lock(owner)) {
+                    if (!changed.contains(owner)) {
+                        trusts.forEach(trustee -> add(trustee, owner));
+                    }
+                }
+            });
+        } finally {
+            building = false;
+        }
+        // Changed trusts are applied to the cache before the index, so whatever is read here is either already
+        // current or followed by the rest of the change
+        for (UUID owner : changed) {
+            synchronized (lock(owner)) {
+                current.apply(owner).forEach(trustee -> add(trustee, owner));
+            }
+        }
+        changed.clear();
+    }
+
+    /**
+     * Apply the difference between an owner's previous and current trusts.
+     */
+    public void update(UUID owner, TrustSet previous, TrustSet current) {
+        synchronized (lock(owner)) {
+            if (building) {
+                changed.add(owner);
+            }
+            previous.forEach(trustee -> {
+                if (!current.contains(trustee)) {
+                    remove(trustee, owner);
+                }
+            });
+            current.forEach(trustee -> {
+                if (!previous.contains(trustee)) {
+                    add(trustee, owner);
+                }
+            });
+        }
+    }
+
+    /**
+     * Check whether the index has been loaded or built, and so lists every owner.
+     */
+    public boolean isReady() {
+        return !building;
+    }
+
+    public Set<UUID> getOwners(UUID trustee) {
+        Set<UUID> trusting = owners.get(trustee);
+        return trusting == null ? Collections.emptySet() : Collections.unmodifiableSet(new HashSet<>(trusting));
+    }
+
+    public synchronized void close() throws IOException {
+        List<UUID[]> pairs = new ArrayList<>();
+        owners.forEach((trustee, trusting) -> trusting.forEach(owner -> pairs.add(new UUID[]{trustee, owner})));
+        Path target = file.toPath();
+        Path temporary = target.resolveSibling(file.getName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temporary)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(pairs.size());
+            for (UUID[] pair : pairs) {
+                for (UUID uuid : pair) {
+                    output.writeLong(uuid.getMostSignificantBits());
+                    output.writeLong(uuid.getLeastSignificantBits());
+                }
+            }
+        }
+        Files2.replaceAtomically(temporary, target);
+        Files.write(getCleanMarker().toPath(), new byte[0]);
+    }
+
+    private void add(UUID trustee, UUID owner) {
+        owners.compute(trustee, (key, trusting) -> {
+            Set<UUID> updated = trusting == null ? ConcurrentHashMap.newKeySet() : trusting;
+            updated.add(owner);
+            return updated;
+        });
+    }
+
+    private void remove(UUID trustee, UUID owner) {
+        owners.computeIfPresent(trustee, (key, trusting) -> {
+            trusting.remove(owner);
+            return trusting.isEmpty() ? null : trusting;
+        });
+    }
+
+    private Object lock(UUID owner) {
+        return locks[(owner.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+    }
+
+    private File getCleanMarker() {
+        return new File(file.getPath() + ".clean");
+    }
+
+}
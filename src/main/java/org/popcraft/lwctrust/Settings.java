@@ -0,0 +1,129 @@
+package org.popcraft.lwctrust;
+
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.popcraft.lwctrust.locale.FileResourceLoader;
+import org.popcraft.lwctrust.locale.Messages;
+import org.popcraft.lwctrust.locale.UTF8Control;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.ResourceBundle;
+
+/**
+ * Immutable snapshot of the settings which can be changed without a restart. A new snapshot is parsed on every
+ * reload and published as a whole, so readers never see a mix of old and new settings.
+ */
+public final class Settings {
+
+    private final String locale;
+    private final int cacheSize;
+    private final boolean confirmAction;
+    private final long confirmTimeout;
+    private final int listPageSize;
+    private final boolean listSortByName;
+    private final Messages messages;
+
+    private Settings(String locale, int cacheSize, boolean confirmAction, long confirmTimeout, int listPageSize,
+                     boolean listSortByName, Messages messages) {
+        this.locale = locale;
+        this.cacheSize = cacheSize;
+        this.confirmAction = confirmAction;
+        this.confirmTimeout = confirmTimeout;
+        this.listPageSize = listPageSize;
+        this.listSortByName = listSortByName;
+        this.messages = messages;
+    }
+
+    /**
+     * Parse settings and locales from an already loaded configuration.
+     */
+    public static Settings load(LWCTrust plugin, FileConfiguration config) {
+        String locale = config.getString("locale", "en");
+        return new Settings(locale, config.getInt("cache-size", 1000), config.getBoolean("confirm-action", true),
+                Math.max(1, config.getLong("confirm-timeout", 60)) * 1000,
+                Math.max(1, config.getInt("list-page-size", 20)), config.getBoolean("list-sort-by-name", false),
+                loadMessages(plugin, locale));
+    }
+
+    /**
+     * Parse settings and locales from the configuration file on disk. This does not touch the plugin's own
+     * configuration, so it is safe to call from any thread.
+     */
+    public static Settings reload(LWCTrust plugin) throws IOException {
+        YamlConfiguration config = YamlConfiguration.loadConfiguration(new File(plugin.getDataFolder(), "config.yml"));
+        try (InputStream defaults = plugin.getResource("config.yml")) {
+            if (defaults != null) {
+                config.setDefaults(YamlConfiguration.loadConfiguration(
+                        new InputStreamReader(defaults, StandardCharsets.UTF_8)));
+            }
+        }
+        return load(plugin, config);
+    }
+
+    private static Messages loadMessages(LWCTrust plugin, String locale) {
+        File messageFile = new File(plugin.getDataFolder() + File.separator +
+                "locale_" + locale + ".properties");
+        // Default locale is English
+        ResourceBundle defaultBundle = ResourceBundle.getBundle("locale", Locale.ENGLISH, new UTF8Control());
+        ResourceBundle localeBundle;
+        if (messageFile.exists()) {
+            // Load a custom provided locale file from the plugin folder, bundles are cached per loader so a new
+            // loader always reads the current file
+            localeBundle = ResourceBundle.getBundle("locale", new Locale(locale),
+                    new FileResourceLoader(plugin), new UTF8Control());
+        } else if (hasResource(plugin, "locale_" + locale + ".properties")) {
+            // Load another valid locale that is included with the plugin
+            localeBundle = ResourceBundle.getBundle("locale", new Locale(locale),
+                    new UTF8Control());
+        } else {
+            // Fall back to the default locale
+            localeBundle = defaultBundle;
+        }
+        return new Messages(defaultBundle, localeBundle);
+    }
+
+    private static boolean hasResource(LWCTrust plugin, String name) {
+        try (InputStream resource = plugin.getResource(name)) {
+            return resource != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public String getLocale() {
+        return locale;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public boolean isConfirmAction() {
+        return confirmAction;
+    }
+
+    /**
+     * Get how long a pending trust waits for confirmation in milliseconds.
+     */
+    public long getConfirmTimeout() {
+        return confirmTimeout;
+    }
+
+    public int getListPageSize() {
+        return listPageSize;
+    }
+
+    public boolean isListSortByName() {
+        return listSortByName;
+    }
+
+    public Messages getMessages() {
+        return messages;
+    }
+
+}
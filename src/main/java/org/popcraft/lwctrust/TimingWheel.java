@@ -0,0 +1,144 @@
+package org.popcraft.lwctrust;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hierarchical timing wheel of keys which expire at a deadline. Each wheel has 64 slots, with every slot of a
+ * coarser wheel covering a full turn of the finer wheel below it. Scheduling, cancelling and expiring a key are
+ * constant time, and timers only move down to a finer wheel when their coarse slot comes due, so there is never a
+ * scan over every pending key.
+ */
+public class TimingWheel<K> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+
+    private static final class Timer {
+
+        private final Object key;
+        private long tick;
+        private int level, slot;
+        private Timer previous, next;
+
+        private Timer(Object key) {
+            this.key = key;
+        }
+
+    }
+
+    private final long tickMillis;
+    private final Timer[][] wheels = new Timer[LEVELS][SLOTS];
+    private final Map<K, Timer> timers = new HashMap<>();
+    private long currentTick;
+
+    public TimingWheel(long tickMillis, long now) {
+        this.tickMillis = tickMillis;
+        this.currentTick = now / tickMillis;
+    }
+
+    /**
+     * Schedule a key to expire at a deadline in milliseconds, replacing its previous deadline if it had one.
+     */
+    public synchronized void schedule(K key, long deadline) {
+        Timer timer = timers.get(key);
+        if (timer == null) {
+            timer = new Timer(key);
+            timers.put(key, timer);
+        } else {
+            unlink(timer);
+        }
+        // Round up, so keys never expire before their deadline
+        timer.tick = Math.max(currentTick + 1, (deadline + tickMillis - 1) / tickMillis);
+        insert(timer);
+    }
+
+    public synchronized boolean cancel(K key) {
+        Timer timer = timers.remove(key);
+        if (timer == null) {
+            return false;
+        }
+        unlink(timer);
+        return true;
+    }
+
+    public synchronized int size() {
+        return timers.size();
+    }
+
+    /**
+     * Move the wheel forward to a time in milliseconds, returning the keys which expired on the way.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized List<K> advance(long now) {
+        List<K> expired = new ArrayList<>();
+        long target = now / tickMillis;
+        while (currentTick < target) {
+            ++currentTick;
+            // Move timers down from every coarser wheel whose slot has just come due, coarsest first
+            for (int level = LEVELS - 1; level > 0; --level) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    Timer timer = detach(level, (int) (currentTick >>> (SLOT_BITS * level)) & MASK);
+                    while (timer != null) {
+                        Timer next = timer.next;
+                        insert(timer);
+                        timer = next;
+                    }
+                }
+            }
+            Timer timer = detach(0, (int) currentTick & MASK);
+            while (timer != null) {
+                Timer next = timer.next;
+                if (timer.tick <= currentTick) {
+                    timers.remove(timer.key);
+                    expired.add((K) timer.key);
+                } else {
+                    // Deadlines beyond the coarsest wheel come around more than once
+                    insert(timer);
+                }
+                timer = next;
+            }
+        }
+        return expired;
+    }
+
+    private void insert(Timer timer) {
+        long delay = timer.tick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delay >= 1L << (SLOT_BITS * (level + 1))) {
+            ++level;
+        }
+        timer.level = level;
+        timer.slot = (int) (timer.tick >>> (SLOT_BITS * level)) & MASK;
+        timer.previous = null;
+        timer.next = wheels[level][timer.slot];
+        if (timer.next != null) {
+            timer.next.previous = timer;
+        }
+        wheels[level][timer.slot] = timer;
+    }
+
+    private void unlink(Timer timer) {
+        if (timer.previous == null) {
+            wheels[timer.level][timer.slot] = timer.next;
+        } else {
+            timer.previous.next = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.previous = timer.previous;
+        }
+        timer.previous = null;
+        timer.next = null;
+    }
+
+    private Timer detach(int level, int slot) {
+        Timer head = wheels[level][slot];
+        wheels[level][slot] = null;
+        return head;
+    }
+
+}
@@ -1,62 +1,435 @@
 package org.popcraft.lwctrust;
 
-import com.google.gson.Gson;
+import org.popcraft.lwctrust.storage.MappedTrustIndex;
+import org.popcraft.lwctrust.storage.StaleTrustsException;
+import org.popcraft.lwctrust.storage.TrustStorage;
+import org.popcraft.lwctrust.sync.TrustSync;
 
-import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.UnaryOperator;
+import java.util.logging.Logger;
 
 /**
  * The trust cache is used to provide efficient access to trusts.
  */
-public class TrustCache extends Cache<UUID, List<UUID>> {
+public class TrustCache extends Cache<UUID, TrustSet> {
 
-    private LWCTrust lwcTrust;
-    private Gson gson;
+    private static final int EPOCH_STRIPES = 4096;
+    private static final int LOCK_STRIPES = 64;
 
-    public TrustCache(LWCTrust lwcTrust, int max) {
+    private Logger logger;
+    private TrustStorage storage;
+    private Executor executor;
+    private WriteBehindQueue writeBehindQueue;
+    private MappedTrustIndex index;
+    private ReverseTrustIndex reverseIndex;
+    private OwnerFilter ownerFilter;
+    private TrustSync sync;
+    // Trust epochs are striped by owner, so a change may also invalidate decisions for a few unrelated owners
+    private final AtomicLongArray epochs = new AtomicLongArray(EPOCH_STRIPES);
+    private final ConcurrentHashMap<UUID, CompletableFuture<TrustSet>> loading = new ConcurrentHashMap<>();
+    private final TrustStats stats = new TrustStats();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private TrustEvents events = TrustEvents.NONE;
+
+    public TrustCache(Logger logger, int max, TrustStorage storage, Executor executor) {
         super(max);
-        this.lwcTrust = lwcTrust;
-        this.gson = new Gson();
+        this.logger = logger;
+        this.storage = storage;
+        this.executor = executor;
+        for (int i = 0; i < LOCK_STRIPES; ++i) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Defer saves to a background queue instead of writing them immediately.
+     */
+    public void enableWriteBehind(long flushInterval, int batchSize) {
+        this.writeBehindQueue = new WriteBehindQueue(logger, batch -> {
+            Object event = events.beginSave();
+            long start = System.nanoTime();
+            Map<UUID, TrustSet> remaining = new HashMap<>(batch);
+            while (true) {
+                try {
+                    storage.saveAll(remaining);
+                    break;
+                } catch (StaleTrustsException e) {
+                    remaining.remove(e.getOwner());
+                    reload(e.getOwner());
+                }
+            }
+            stats.getSaveLatency().record(System.nanoTime() - start);
+            stats.recordSaves(batch.size());
+            events.commitSave(event, null, batch.size(), false);
+        }, flushInterval, batchSize);
+    }
+
+    /**
+     * Emit profiling events for loads and saves.
+     */
+    public void setEvents(TrustEvents events) {
+        this.events = events;
+    }
+
+    public TrustEvents getEvents() {
+        return events;
+    }
+
+    /**
+     * Keep a binary index up to date with every saved change.
+     */
+    public void setIndex(MappedTrustIndex index) {
+        this.index = index;
+    }
+
+    public MappedTrustIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Keep a reverse index up to date with every change.
+     */
+    public void setReverseIndex(ReverseTrustIndex reverseIndex) {
+        this.reverseIndex = reverseIndex;
+    }
+
+    public ReverseTrustIndex getReverseIndex() {
+        return reverseIndex;
+    }
+
+    /**
+     * Skip storage for owners which are known to have no trusts.
+     */
+    public void setOwnerFilter(OwnerFilter ownerFilter) {
+        this.ownerFilter = ownerFilter;
+    }
+
+    public OwnerFilter getOwnerFilter() {
+        return ownerFilter;
+    }
+
+    /**
+     * Announce trust changes to other servers sharing the same storage.
+     */
+    public void setSync(TrustSync sync) {
+        this.sync = sync;
+    }
+
+    public TrustSync getSync() {
+        return sync;
     }
 
-    public List<UUID> load(UUID key) {
-        if (containsKey(key)) {
-            return get(key);
+    /**
+     * Add loaded trusts to the cache without replacing anything already there, returning how many were added.
+     */
+    public int warm(Map<UUID, TrustSet> loaded) {
+        int warmed = 0;
+        for (Map.Entry<UUID, TrustSet> entry : loaded.entrySet()) {
+            if (!entry.getValue().isEmpty() && putIfAbsent(entry.getKey(), entry.getValue()) == null) {
+                ++warmed;
+            }
+        }
+        return warmed;
+    }
+
+    /**
+     * Drop cached trusts so that they are read from storage again on next access.
+     */
+    public void invalidate(Collection<UUID> keys) {
+        keys.forEach(key -> {
+            remove(key);
+            advanceEpoch(key);
+        });
+    }
+
+    public WriteBehindQueue getWriteBehindQueue() {
+        return writeBehindQueue;
+    }
+
+    /**
+     * Write any pending trusts, returning how many were written. Write-behind carries on afterwards.
+     */
+    public int flush() {
+        return writeBehindQueue == null ? 0 : writeBehindQueue.flushAll();
+    }
+
+    /**
+     * Stop write-behind and write any pending trusts, returning how many were written.
+     */
+    public int drain() {
+        return writeBehindQueue == null ? 0 : writeBehindQueue.drain();
+    }
+
+    public TrustSet load(UUID key) {
+        if (ownerFilter != null && !ownerFilter.mightContain(key)) {
+            stats.recordFiltered();
+            return TrustSet.empty();
+        }
+        Object event = events.beginLoad();
+        boolean[] missed = new boolean[1];
+        TrustSet trusts = get(key, k -> {
+            missed[0] = true;
+            stats.recordMiss();
+            long start = System.nanoTime();
+            TrustSet loaded = read(k);
+            stats.getLoadLatency().record(System.nanoTime() - start);
+            return loaded;
+        });
+        if (!missed[0]) {
+            stats.recordHit();
         }
-        File trustFile = new File(lwcTrust.getDataFolder() + File.separator + "trusts"
-                + File.separator + key.toString() + ".json");
+        events.commitLoad(event, key, !missed[0], trusts.size());
+        return trusts;
+    }
+
+    /**
+     * Get cached trusts without loading them, counting a hit if they are cached.
+     */
+    public TrustSet getIfCached(UUID key) {
+        TrustSet cached = get(key);
+        if (cached != null) {
+            stats.recordHit();
+        }
+        return cached;
+    }
+
+    /**
+     * Load trusts without blocking the calling thread. Cache hits complete immediately, and concurrent loads of
+     * the same key share a single read.
+     */
+    public CompletableFuture<TrustSet> loadAsync(UUID key) {
+        return loadAsync(key, executor);
+    }
+
+    /**
+     * Load trusts without blocking the calling thread, reading them on the given executor on a miss.
+     */
+    public CompletableFuture<TrustSet> loadAsync(UUID key, Executor executor) {
+        if (ownerFilter != null && !ownerFilter.mightContain(key)) {
+            stats.recordFiltered();
+            return CompletableFuture.completedFuture(TrustSet.empty());
+        }
+        TrustSet cached = getIfCached(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<TrustSet> future = new CompletableFuture<>();
+        CompletableFuture<TrustSet> existing = loading.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing;
+        }
+        Runnable task = () -> {
+            try {
+                future.complete(load(key));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                loading.remove(key, future);
+            }
+        };
         try {
-            Trust trust = gson.fromJson(new FileReader(trustFile), Trust.class);
-            put(key, trust.getTrusted());
-        } catch (FileNotFoundException e) {
-            put(key, new ArrayList<>());
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+        return future;
+    }
+
+    /**
+     * Get a counter which changes whenever the owner's trusts may have changed.
+     */
+    public long getEpoch(UUID key) {
+        return epochs.get(stripe(key));
+    }
+
+    /**
+     * Mark trusts as changed without dropping them, so that decisions made from them are not reused.
+     */
+    public void advanceEpochs(Collection<UUID> keys) {
+        keys.forEach(this::advanceEpoch);
+    }
+
+    public void advanceAllEpochs() {
+        for (int i = 0; i < EPOCH_STRIPES; ++i) {
+            epochs.incrementAndGet(i);
+        }
+    }
+
+    private void advanceEpoch(UUID key) {
+        epochs.incrementAndGet(stripe(key));
+    }
+
+    private static int stripe(UUID key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (EPOCH_STRIPES - 1);
+    }
+
+    /**
+     * Change an owner's trusts, returning the new trusts. Trusts which are not cached are read before anything is
+     * locked, and the change is applied with a compare-and-set, so the function may run again if the trusts changed
+     * in the meantime.
+     */
+    public TrustSet update(UUID key, UnaryOperator<TrustSet> function) {
+        while (true) {
+            TrustSet cached = get(key);
+            TrustSet previous = cached;
+            if (previous == null) {
+                previous = ownerFilter != null && !ownerFilter.mightContain(key) ? TrustSet.empty() : read(key);
+            }
+            TrustSet updated = function.apply(previous);
+            // The indexes only receive differences, so changes to the same owner are passed on in order
+            synchronized (lock(key)) {
+                if (!swap(key, cached, updated)) {
+                    continue;
+                }
+                if (updated != previous) {
+                    if (ownerFilter != null && previous.isEmpty() != updated.isEmpty()) {
+                        if (updated.isEmpty()) {
+                            ownerFilter.remove(key);
+                        } else {
+                            ownerFilter.add(key);
+                        }
+                    }
+                    if (reverseIndex != null) {
+                        reverseIndex.update(key, previous, updated);
+                    }
+                    if (sync != null) {
+                        sync.changed(key, previous, updated);
+                    }
+                }
+            }
+            // Only advanced once the new trusts are visible, so a decision made from the old ones is never kept
+            advanceEpoch(key);
+            return updated;
         }
-        return get(key);
     }
 
-    public void save(UUID key) {
-        if (!containsKey(key)) {
+    /**
+     * Apply a change another server made to shared storage, without saving or announcing it again. Only the
+     * changed players are applied, so the result does not depend on whether storage already has the change.
+     */
+    public void applyRemote(UUID key, Collection<UUID> added, Collection<UUID> removed) {
+        while (true) {
+            TrustSet cached = get(key);
+            TrustSet previous = cached;
+            if (previous == null && index != null) {
+                // The binary index needs the owner's full trusts
+                previous = ownerFilter != null && !ownerFilter.mightContain(key) ? TrustSet.empty() : read(key);
+            }
+            synchronized (lock(key)) {
+                if (previous != null) {
+                    TrustSet updated = previous.without(removed).with(added);
+                    if (!swap(key, cached, updated)) {
+                        continue;
+                    }
+                    if (index != null) {
+                        index.update(key, updated);
+                    }
+                } else if (containsKey(key)) {
+                    // Loaded in the meantime, possibly from storage without the change
+                    continue;
+                }
+                // Without the full trusts, an owner can only be added to the filter, which at worst costs a lookup
+                if (ownerFilter != null && !added.isEmpty() && !ownerFilter.mightContain(key)) {
+                    ownerFilter.add(key);
+                }
+                if (reverseIndex != null) {
+                    reverseIndex.update(key, TrustSet.of(removed), TrustSet.of(added));
+                }
+            }
+            advanceEpoch(key);
+            return;
+        }
+    }
+
+    // Replace the cached trusts only if they are still the ones a change was made from
+    private boolean swap(UUID key, TrustSet cached, TrustSet updated) {
+        return cached == null ? putIfAbsent(key, updated) == null : replace(key, cached, updated);
+    }
+
+    private Object lock(UUID key) {
+        return locks[(key.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+    }
+
+    /**
+     * Save an owner's trusts as returned by {@link #update}, which may already have been evicted from the cache.
+     */
+    public void save(UUID key, TrustSet trusts) {
+        Object event = events.beginSave();
+        if (index != null) {
+            index.update(key, trusts);
+            advanceEpoch(key);
+        }
+        if (writeBehindQueue != null) {
+            writeBehindQueue.enqueue(key, trusts);
+            events.commitSave(event, key, trusts.size(), true);
             return;
         }
-        File trustFile = new File(lwcTrust.getDataFolder() + File.separator + "trusts"
-                + File.separator + key.toString() + ".json");
         try {
-            if (get(key).isEmpty()) {
-                if (trustFile.exists()) {
-                    //noinspection ResultOfMethodCallIgnored
-                    trustFile.delete();
-                }
-            } else {
-                String trust = gson.toJson(new Trust(key, get(key)));
-                FileWriter fileWriter = new FileWriter(trustFile);
-                fileWriter.write(trust);
-                fileWriter.close();
+            long start = System.nanoTime();
+            storage.save(key, trusts);
+            stats.getSaveLatency().record(System.nanoTime() - start);
+            stats.recordSaves(1);
+        } catch (StaleTrustsException e) {
+            reload(key);
+        } catch (IOException e) {
+            logger.warning("Unable to save trusts for " + key);
+        }
+        events.commitSave(event, key, trusts.size(), false);
+    }
+
+    // Replace trusts which storage refused to save with what it has now, undoing the change made here
+    private void reload(UUID key) {
+        TrustSet current;
+        try {
+            current = storage.load(key);
+        } catch (IOException e) {
+            logger.warning("Unable to load trusts for " + key + ": " + e.getMessage());
+            return;
+        }
+        logger.warning("Trusts for " + key + " were changed elsewhere since they were loaded, discarding the change");
+        update(key, trusts -> current);
+        if (index != null) {
+            index.update(key, current);
+        }
+    }
+
+    private TrustSet read(UUID key) {
+        if (writeBehindQueue != null) {
+            TrustSet pending = writeBehindQueue.getPending(key);
+            if (pending != null) {
+                return pending;
             }
+        }
+        try {
+            return storage.load(key);
         } catch (IOException e) {
-            lwcTrust.getLogger().warning("Unable to save file " + trustFile.toString());
+            logger.warning("Unable to load trusts for " + key + ": " + e.getMessage());
+            return TrustSet.empty();
         }
     }
 
+    @Override
+    protected void onEviction(UUID key) {
+        stats.recordEviction();
+    }
+
+    public TrustStats getStats() {
+        return stats;
+    }
+
+    public TrustStorage getStorage() {
+        return storage;
+    }
+
 }
@@ -0,0 +1,693 @@
+package org.popcraft.lwctrust;
+
+import org.apache.commons.lang.StringUtils;
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.popcraft.lwctrust.profile.Profile;
+import org.popcraft.lwctrust.storage.TrustArchive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Handler for the trust command. Arguments are checked on the main thread, then names are resolved and trusts are
+ * loaded, changed and saved on the I/O executor, one command at a time per owner. Messages are sent back on the
+ * main thread once the command has completed.
+ */
+public class TrustCommand {
+
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+    private static final Pattern DURATION_PATTERN = Pattern.compile("(\\d{1,9})([smhdw])", Pattern.CASE_INSENSITIVE);
+
+    private LWCTrust lwcTrust;
+    private OwnerQueue ownerQueue;
+    private Cache<UUID, RenderedList> renderedLists;
+    private TimingWheel<UUID> confirmations;
+    private AtomicBoolean archiveRunning = new AtomicBoolean();
+
+    public TrustCommand(LWCTrust lwcTrust) {
+        this.lwcTrust = lwcTrust;
+        this.ownerQueue = new OwnerQueue(lwcTrust.getIoExecutor());
+        this.renderedLists = new Cache<>(lwcTrust.getSettings().getCacheSize());
+        this.confirmations = new TimingWheel<>(1000, System.currentTimeMillis());
+    }
+
+    public void setCacheSize(int cacheSize) {
+        renderedLists.setMaximumSize(cacheSize);
+    }
+
+    public boolean onCommand(CommandSender sender, String[] args) {
+        // Reloading is also allowed from the console
+        if (args.length == 1 && "reload".equalsIgnoreCase(args[0]) && sender.hasPermission("lwctrust.reload")) {
+            lwcTrust.reload().whenComplete((reloaded, throwable) -> Bukkit.getScheduler().runTask(lwcTrust, () -> {
+                if (throwable != null) {
+                    Throwable cause = throwable.getCause() == null ? throwable : throwable.getCause();
+                    sender.sendMessage(lwcTrust.getMessage("trust.reload.failed", cause.getMessage()));
+                } else {
+                    sender.sendMessage(lwcTrust.getMessage("trust.reload"));
+                }
+            }));
+            return true;
+        }
+        // Statistics can also be shown on the console
+        if (args.length == 1 && "stats".equalsIgnoreCase(args[0]) && sender.hasPermission("lwctrust.stats")) {
+            sendStats(sender);
+            return true;
+        }
+        // Importing and exporting is also allowed from the console
+        if (args.length >= 2 && "admin".equalsIgnoreCase(args[0]) && sender.hasPermission("lwctrust.admin")) {
+            archive(sender, args[1].toLowerCase(Locale.ROOT), args.length < 3 ? null : args[2],
+                    args.length < 4 ? "union" : args[3].toLowerCase(Locale.ROOT));
+            return true;
+        }
+        // Only players can trust
+        if (args.length < 1 || !(sender instanceof Player)) {
+            sender.sendMessage(lwcTrust.getMessage("trust.description"));
+            return false;
+        }
+        boolean confirm = lwcTrust.getSettings().isConfirmAction();
+        Player player = (Player) sender;
+        List<String> names = new ArrayList<>(Arrays.asList(args).subList(1, args.length));
+        if ("add".equalsIgnoreCase(args[0]) && player.hasPermission("lwctrust.trust.add")) {
+            // A duration after the names makes the trusts expire
+            long duration = names.isEmpty() ? 0 : parseDuration(names.get(names.size() - 1));
+            String durationText = duration > 0 ? names.remove(names.size() - 1) : null;
+            submit(player, () -> add(player, names, confirm, duration, durationText));
+        } else if ("remove".equalsIgnoreCase(args[0]) && player.hasPermission("lwctrust.trust.remove")) {
+            submit(player, () -> remove(player, names));
+        } else if ("list".equalsIgnoreCase(args[0]) && player.hasPermission("lwctrust.trust.list")) {
+            // Arguments are an optional page number and an optional name prefix, in any order
+            int page = 1;
+            String prefix = null;
+            for (String argument : names) {
+                try {
+                    page = Math.max(1, Integer.parseInt(argument));
+                } catch (NumberFormatException e) {
+                    prefix = argument;
+                }
+            }
+            int listPage = page;
+            String listPrefix = prefix;
+            submit(player, () -> list(player, listPage, listPrefix));
+        } else if ("who".equalsIgnoreCase(args[0]) && player.hasPermission("lwctrust.trust.who")) {
+            submit(player, () -> who(player));
+        } else if ("confirm".equalsIgnoreCase(args[0])) {
+            submit(player, () -> confirm(player));
+        } else if ("cancel".equalsIgnoreCase(args[0])) {
+            submit(player, () -> cancel(player));
+        } else if ("group".equalsIgnoreCase(args[0]) && player.hasPermission("lwctrust.trust.group")) {
+            // Without a group name, the only action is listing the player's own groups
+            if (args.length < 2 || args.length < 3 && !"list".equalsIgnoreCase(args[1])) {
+                sender.sendMessage(lwcTrust.getMessage("trust.group.usage"));
+                return true;
+            }
+            String action = args[1].toLowerCase(Locale.ROOT);
+            String groupName = args.length < 3 ? null : args[2];
+            List<String> members = args.length < 4 ? Collections.emptyList()
+                    : new ArrayList<>(Arrays.asList(args).subList(3, args.length));
+            submit(player, () -> group(player, action, groupName, members));
+        } else {
+            sender.sendMessage(lwcTrust.getMessage("trust.description"));
+            return false;
+        }
+        return true;
+    }
+
+    public List<String> onTabComplete(CommandSender sender, String[] args) {
+        if (!(sender instanceof Player)) {
+            return Collections.emptyList();
+        }
+        Player player = (Player) sender;
+        if (args.length == 1) {
+            List<String> completions = new ArrayList<>();
+            if (player.hasPermission("lwctrust.trust.add")) {
+                completions.add("add");
+            }
+            if (player.hasPermission("lwctrust.trust.remove")) {
+                completions.add("remove");
+            }
+            if (player.hasPermission("lwctrust.trust.list")) {
+                completions.add("list");
+            }
+            if (player.hasPermission("lwctrust.trust.who")) {
+                completions.add("who");
+            }
+            if (player.hasPermission("lwctrust.trust.group")) {
+                completions.add("group");
+            }
+            if (player.hasPermission("lwctrust.reload")) {
+                completions.add("reload");
+            }
+            if (player.hasPermission("lwctrust.stats")) {
+                completions.add("stats");
+            }
+            if (player.hasPermission("lwctrust.admin")) {
+                completions.add("admin");
+            }
+            if (lwcTrust.getConfirmCache().containsKey(player.getUniqueId())) {
+                completions.addAll(Arrays.asList("confirm", "cancel"));
+            }
+            return completions.stream().filter(s -> s.startsWith(args[0])).collect(Collectors.toList());
+        } else if (args.length > 1 && Arrays.asList("add", "remove").contains(args[0])) {
+            return null;
+        } else if (args.length > 1 && "group".equals(args[0]) && player.hasPermission("lwctrust.trust.group")) {
+            return completeGroup(player, args);
+        } else if (args.length == 2 && "admin".equals(args[0]) && player.hasPermission("lwctrust.admin")) {
+            return Arrays.asList("export", "import").stream().filter(s -> s.startsWith(args[1]))
+                    .collect(Collectors.toList());
+        } else if (args.length == 4 && "admin".equals(args[0]) && "import".equals(args[1])
+                && player.hasPermission("lwctrust.admin")) {
+            return Arrays.asList("union", "overwrite").stream().filter(s -> s.startsWith(args[3]))
+                    .collect(Collectors.toList());
+        } else {
+            return Collections.emptyList();
+        }
+    }
+
+    private List<String> completeGroup(Player player, String[] args) {
+        GroupManager groupManager = lwcTrust.getGroupManager();
+        if (args.length == 2) {
+            return Arrays.asList("create", "delete", "add", "remove", "list", "trust", "untrust").stream()
+                    .filter(s -> s.startsWith(args[1])).collect(Collectors.toList());
+        } else if (args.length == 3 && !"create".equals(args[1])) {
+            // Any group can be trusted or listed, but only the creator can change a group
+            List<String> names = groupManager.getGroupsCreatedBy(player.getUniqueId()).stream()
+                    .map(TrustGroup::getName).collect(Collectors.toList());
+            TrustGroup group = groupManager.getGroup(args[2]);
+            if (group != null && !names.contains(group.getName())
+                    && Arrays.asList("trust", "untrust", "list").contains(args[1])) {
+                names.add(group.getName());
+            }
+            return names.stream().filter(s -> s.startsWith(args[2])).collect(Collectors.toList());
+        } else if (args.length > 3 && Arrays.asList("add", "remove").contains(args[1])) {
+            return null;
+        }
+        return Collections.emptyList();
+    }
+
+    private void sendStats(CommandSender sender) {
+        TrustCache trustCache = lwcTrust.getTrustCache();
+        TrustStats stats = trustCache.getStats();
+        sender.sendMessage(lwcTrust.getMessage("trust.stats.cache", trustCache.size(),
+                trustCache.getMaximumSize(), stats.getHits(), stats.getMisses(),
+                String.format("%.1f", stats.getHitRate()), stats.getEvictions()));
+        sender.sendMessage(lwcTrust.getMessage("trust.stats.skipped", stats.getFiltered(), stats.getIndexed()));
+        sender.sendMessage(lwcTrust.getMessage("trust.stats.saves", stats.getSaves()));
+        sendLatency(sender, "load", stats.getLoadLatency());
+        sendLatency(sender, "save", stats.getSaveLatency());
+        sendLatency(sender, "access", stats.getAccessLatency());
+    }
+
+    private void sendLatency(CommandSender sender, String name, LatencyHistogram histogram) {
+        sender.sendMessage(lwcTrust.getMessage("trust.stats.latency", name, histogram.getCount(),
+                String.format("%.3f", histogram.getMeanMillis()),
+                String.format("%.3f", histogram.getPercentileMillis(50)),
+                String.format("%.3f", histogram.getPercentileMillis(99))));
+    }
+
+    /**
+     * Drop confirmations which timed out and remove trusts which expired. This is called periodically off the main
+     * thread.
+     */
+    public void expire(long now) {
+        for (UUID owner : confirmations.advance(now)) {
+            boolean[] expired = new boolean[1];
+            lwcTrust.getConfirmCache().compute(owner, (key, pending) -> {
+                expired[0] = pending != null && pending.getDeadline() <= now;
+                return expired[0] ? null : pending;
+            });
+            if (expired[0] && lwcTrust.isEnabled()) {
+                Bukkit.getScheduler().runTask(lwcTrust, () -> {
+                    Player player = Bukkit.getPlayer(owner);
+                    if (player != null) {
+                        player.sendMessage(lwcTrust.getMessage("trust.confirm.expired"));
+                    }
+                });
+            }
+        }
+        // Expired trusts are removed in their owner's queue, so they cannot race a command renewing them
+        lwcTrust.getTrustExpiries().advance(now).forEach((owner, trusted) -> ownerQueue.submit(owner, () -> {
+            List<UUID> due = lwcTrust.getTrustExpiries().removeExpired(owner, trusted, now);
+            if (!due.isEmpty()) {
+                TrustCache trustCache = lwcTrust.getTrustCache();
+                trustCache.save(owner, trustCache.update(owner, trusts -> trusts.without(due)));
+                saveExpiries();
+            }
+            return CompletableFuture.completedFuture(null);
+        }).whenComplete((ignored, throwable) -> {
+            if (throwable != null) {
+                lwcTrust.getLogger().warning("Unable to remove expired trusts of " + owner + ": "
+                        + throwable.getMessage());
+            }
+        }));
+    }
+
+    // Export every trust to an archive in the plugin folder, or import one, reporting progress as it goes
+    private void archive(CommandSender sender, String action, String name, String modeName) {
+        boolean export = "export".equals(action);
+        if (!export && (!"import".equals(action) || name == null)
+                || !"union".equals(modeName) && !"overwrite".equals(modeName)) {
+            sender.sendMessage(lwcTrust.getMessage("trust.admin.usage"));
+            return;
+        }
+        File file = new File(lwcTrust.getDataFolder(), name == null ? "trusts.lta" : name);
+        try {
+            if (!file.getCanonicalPath().startsWith(lwcTrust.getDataFolder().getCanonicalPath() + File.separator)) {
+                sender.sendMessage(lwcTrust.getMessage("trust.admin.invalid"));
+                return;
+            }
+        } catch (IOException e) {
+            sender.sendMessage(lwcTrust.getMessage("trust.admin.invalid"));
+            return;
+        }
+        if (!archiveRunning.compareAndSet(false, true)) {
+            sender.sendMessage(lwcTrust.getMessage("trust.admin.busy"));
+            return;
+        }
+        TrustArchive.Mode mode = TrustArchive.Mode.valueOf(modeName.toUpperCase(Locale.ROOT));
+        Bukkit.getScheduler().runTaskAsynchronously(lwcTrust, () -> {
+            long start = System.nanoTime();
+            long[] reported = {start};
+            LongConsumer progress = owners -> {
+                long now = System.nanoTime();
+                if (now - reported[0] >= PROGRESS_INTERVAL) {
+                    reported[0] = now;
+                    sendLater(sender, "trust.admin.progress", owners);
+                }
+            };
+            TrustArchive archive = new TrustArchive(ForkJoinPool.commonPool());
+            TrustCache trustCache = lwcTrust.getTrustCache();
+            try {
+                long owners;
+                if (export) {
+                    // Pending writes have to reach storage to be exported
+                    trustCache.flush();
+                    owners = archive.export(trustCache.getStorage(), lwcTrust.getTrustExpiries().getDeadlines(),
+                            file, progress);
+                } else {
+                    // Imported trusts go through the cache, which keeps the indexes and filters up to date, and
+                    // through each owner's queue, so they are applied in order with the owner's own commands
+                    TrustExpiries expiries = lwcTrust.getTrustExpiries();
+                    owners = archive.read(file, (trusts, deadlines) -> {
+                        List<CompletableFuture<Void>> imports = new ArrayList<>(trusts.size());
+                        trusts.forEach((owner, imported) -> imports.add(ownerQueue.submit(owner, () -> {
+                            TrustSet[] previous = new TrustSet[1];
+                            TrustSet updated = trustCache.update(owner, existing -> {
+                                previous[0] = existing;
+                                return mode == TrustArchive.Mode.UNION ? existing.with(imported.toList()) : imported;
+                            });
+                            // Overwritten owners get the archived deadlines only, a union only times new trusts
+                            if (mode == TrustArchive.Mode.OVERWRITE) {
+                                expiries.clear(owner, previous[0].toList());
+                            }
+                            deadlines.getOrDefault(owner, Collections.emptyMap()).forEach((trusted, deadline) -> {
+                                if (mode == TrustArchive.Mode.OVERWRITE || !previous[0].contains(trusted)) {
+                                    expiries.expireAt(owner, Collections.singletonList(trusted), deadline);
+                                }
+                            });
+                            trustCache.save(owner, updated);
+                            return CompletableFuture.completedFuture(null);
+                        })));
+                        // One block at a time, which bounds the number of queued imports
+                        CompletableFuture.allOf(imports.toArray(new CompletableFuture<?>[0])).join();
+                        saveExpiries();
+                    }, progress);
+                }
+                sendLater(sender, export ? "trust.admin.exported" : "trust.admin.imported", owners, file.getName(),
+                        String.format("%.1f", (System.nanoTime() - start) / 1e9));
+            } catch (IOException | RuntimeException e) {
+                lwcTrust.getLogger().warning("Unable to " + action + " trust archive " + file + ": " + e);
+                sendLater(sender, "trust.admin.failed", e.getMessage());
+            } finally {
+                archiveRunning.set(false);
+            }
+        });
+    }
+
+    private void sendLater(CommandSender sender, String key, Object... args) {
+        if (lwcTrust.isEnabled()) {
+            Bukkit.getScheduler().runTask(lwcTrust, () -> sender.sendMessage(lwcTrust.getMessage(key, args)));
+        }
+    }
+
+    private CompletableFuture<Runnable> add(Player player, List<String> names, boolean confirm, long duration,
+                                            String durationText) {
+        UUID owner = player.getUniqueId();
+        // Resolve the unique players to add from the arguments
+        return lwcTrust.getNameResolver().resolveNames(names).thenApply(profiles -> {
+            List<UUID> toTrust = profiles.stream().map(Profile::getUniqueId).collect(Collectors.toList());
+            if (confirm) {
+                // If we need to confirm, just add these to the confirmation cache until they time out
+                long deadline = System.currentTimeMillis() + lwcTrust.getSettings().getConfirmTimeout();
+                lwcTrust.getConfirmCache().put(owner, new PendingTrust(toTrust, duration, durationText, deadline));
+                confirmations.schedule(owner, deadline);
+                return () -> player.sendMessage(lwcTrust.getMessage("trust.add.confirm"));
+            }
+            // Otherwise we are just going to directly save any new players to the player's trusts
+            grant(owner, toTrust, duration);
+            return () -> notifyAdded(player, profiles, durationText);
+        });
+    }
+
+    // Add trusts which expire after a duration in milliseconds, or never if the duration is 0
+    private void grant(UUID owner, List<UUID> toTrust, long duration) {
+        TrustExpiries expiries = lwcTrust.getTrustExpiries();
+        // Deadlines are saved before the trusts, so a failure in between cannot leave a timed trust permanent
+        if (duration > 0) {
+            expiries.expireAt(owner, toTrust, System.currentTimeMillis() + duration);
+            saveExpiries();
+        } else if (expiries.clear(owner, toTrust)) {
+            saveExpiries();
+        }
+        TrustCache trustCache = lwcTrust.getTrustCache();
+        trustCache.save(owner, trustCache.update(owner, trusted -> trusted.with(toTrust)));
+    }
+
+    private CompletableFuture<Runnable> remove(Player player, List<String> names) {
+        UUID owner = player.getUniqueId();
+        // Load a player's trusts, remove any players matching the arguments, and save
+        return lwcTrust.getNameResolver().resolveNames(names).thenApply(profiles -> {
+            List<UUID> toRemove = profiles.stream().map(Profile::getUniqueId).collect(Collectors.toList());
+            TrustCache trustCache = lwcTrust.getTrustCache();
+            trustCache.save(owner, trustCache.update(owner, trusted -> trusted.without(toRemove)));
+            if (lwcTrust.getTrustExpiries().clear(owner, toRemove)) {
+                saveExpiries();
+            }
+            return () -> profiles.forEach(profile -> {
+                player.sendMessage(lwcTrust.getMessage("trust.remove", profile.getName()));
+                Player onlinePlayer = Bukkit.getPlayer(profile.getUniqueId());
+                if (onlinePlayer != null) {
+                    onlinePlayer.sendMessage(lwcTrust.getMessage("trust.remove.notify", player.getName()));
+                }
+            });
+        });
+    }
+
+    private CompletableFuture<Runnable> list(Player player, int page, String prefix) {
+        UUID owner = player.getUniqueId();
+        TrustCache trustCache = lwcTrust.getTrustCache();
+        Settings settings = lwcTrust.getSettings();
+        // The epoch is read before the trusts, so a change made in between makes the rendered page stale
+        long epoch = trustCache.getEpoch(owner);
+        // Load a player's trusts and send them a page of the list
+        TrustSet trusted = trustCache.load(owner);
+        if (trusted.isEmpty()) {
+            return reply(player, "trust.list.empty");
+        }
+        // Filtered lists are not cached, and page numbers past the end show the last page, so an owner has at
+        // most one cached page per page of trusts
+        if (prefix != null) {
+            return renderPage(trusted.toList(), page, prefix, settings)
+                    .thenApply(message -> () -> player.sendMessage(message));
+        }
+        RenderedList rendered = renderedLists.get(owner);
+        if (rendered == null || rendered.epoch != epoch || rendered.settings != settings) {
+            rendered = new RenderedList(epoch, settings);
+            renderedLists.put(owner, rendered);
+        }
+        int pageSize = settings.getListPageSize();
+        int current = Math.min(page, (trusted.size() + pageSize - 1) / pageSize);
+        String cached = rendered.pages.get(current);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(() -> player.sendMessage(cached));
+        }
+        Map<Integer, String> pages = rendered.pages;
+        return renderPage(trusted.toList(), current, null, settings).thenApply(message -> {
+            pages.put(current, message);
+            return () -> player.sendMessage(message);
+        });
+    }
+
+    private CompletableFuture<String> renderPage(List<UUID> trusted, int page, String prefix, Settings settings) {
+        int pageSize = settings.getListPageSize();
+        if (prefix == null && !settings.isListSortByName()) {
+            // Only the names on the requested page have to be resolved
+            int pages = (trusted.size() + pageSize - 1) / pageSize;
+            int current = Math.min(page, pages);
+            List<UUID> onPage = trusted.subList((current - 1) * pageSize,
+                    Math.min(trusted.size(), current * pageSize));
+            return resolveTrusted(onPage).thenApply(profiles -> formatPage(settings, profiles, current, pages));
+        }
+        // Filtering and sorting need every name, which are mostly cached after the first page
+        return resolveTrusted(trusted).thenApply(profiles -> {
+            List<Profile> matching = profiles.stream()
+                    .filter(profile -> prefix == null || profile.getName().regionMatches(true, 0, prefix, 0,
+                            prefix.length()))
+                    .collect(Collectors.toList());
+            if (matching.isEmpty()) {
+                return settings.getMessages().get("trust.list.nomatch", prefix);
+            }
+            if (settings.isListSortByName()) {
+                matching.sort(Comparator.comparing(Profile::getName, String.CASE_INSENSITIVE_ORDER));
+            }
+            int pages = (matching.size() + pageSize - 1) / pageSize;
+            int current = Math.min(page, pages);
+            return formatPage(settings, matching.subList((current - 1) * pageSize,
+                    Math.min(matching.size(), current * pageSize)), current, pages);
+        });
+    }
+
+    private static String formatPage(Settings settings, List<Profile> profiles, int page, int pages) {
+        if (pages == 1) {
+            return settings.getMessages().get("trust.list", joinNames(profiles));
+        }
+        return settings.getMessages().get("trust.list.page", page, pages, joinNames(profiles));
+    }
+
+    private CompletableFuture<Runnable> who(Player player) {
+        // Look up the owners who trust this player
+        Set<UUID> owners = lwcTrust.getTrustingOwners(player.getUniqueId());
+        if (owners.isEmpty()) {
+            return reply(player, "trust.who.empty");
+        }
+        return lwcTrust.getNameResolver().resolveUniqueIds(owners).thenApply(profiles ->
+                () -> player.sendMessage(lwcTrust.getMessage("trust.who", joinNames(profiles))));
+    }
+
+    private CompletableFuture<Runnable> confirm(Player player) {
+        UUID owner = player.getUniqueId();
+        // Add any trusts from pending confirmations, if any
+        PendingTrust pending = removePending(owner);
+        if (pending == null) {
+            return reply(player, "trust.confirm.empty");
+        }
+        grant(owner, pending.getTrusted(), pending.getDuration());
+        return lwcTrust.getNameResolver().resolveUniqueIds(pending.getTrusted())
+                .thenApply(profiles -> () -> notifyAdded(player, profiles, pending.getDurationText()));
+    }
+
+    private CompletableFuture<Runnable> cancel(Player player) {
+        // Cancel pending trust confirmations, if any
+        if (removePending(player.getUniqueId()) != null) {
+            return reply(player, "trust.cancel");
+        }
+        return reply(player, "trust.confirm.empty");
+    }
+
+    // Remove an owner's pending trusts, ignoring them if they timed out but were not dropped yet
+    private PendingTrust removePending(UUID owner) {
+        PendingTrust pending = lwcTrust.getConfirmCache().remove(owner);
+        confirmations.cancel(owner);
+        return pending == null || pending.getDeadline() <= System.currentTimeMillis() ? null : pending;
+    }
+
+    private CompletableFuture<Runnable> group(Player player, String action, String name, List<String> names) {
+        GroupManager groupManager = lwcTrust.getGroupManager();
+        UUID owner = player.getUniqueId();
+        if (name == null) {
+            // List the groups this player created
+            List<TrustGroup> groups = groupManager.getGroupsCreatedBy(owner);
+            if (groups.isEmpty()) {
+                return reply(player, "trust.group.groups.empty");
+            }
+            return reply(player, "trust.group.groups",
+                    groups.stream().map(TrustGroup::getName).collect(Collectors.joining(", ")));
+        }
+        if ("create".equals(action)) {
+            if (!GroupManager.isValidName(name)) {
+                return reply(player, "trust.group.invalid");
+            }
+            TrustGroup created = groupManager.create(name, owner);
+            if (created == null) {
+                return reply(player, "trust.group.exists", name);
+            }
+            saveGroups();
+            return reply(player, "trust.group.created", created.getName());
+        }
+        TrustGroup group = groupManager.getGroup(name);
+        if (group == null) {
+            return reply(player, "trust.group.unknown", name);
+        }
+        TrustCache trustCache = lwcTrust.getTrustCache();
+        List<UUID> groupId = Collections.singletonList(group.getId());
+        switch (action) {
+            case "trust":
+                trustCache.save(owner, trustCache.update(owner, trusted -> trusted.with(groupId)));
+                return reply(player, "trust.group.trust", group.getName());
+            case "untrust":
+                trustCache.save(owner, trustCache.update(owner, trusted -> trusted.without(groupId)));
+                return reply(player, "trust.group.untrust", group.getName());
+            case "list":
+                if (group.getMembers().isEmpty()) {
+                    return reply(player, "trust.group.list.empty", group.getName());
+                }
+                return lwcTrust.getNameResolver().resolveUniqueIds(group.getMembers().toList())
+                        .thenApply(profiles -> () -> player.sendMessage(lwcTrust.getMessage("trust.group.list",
+                                group.getName(), joinNames(profiles))));
+            default:
+                break;
+        }
+        // Everything else changes the group, which only its creator may do
+        if (!group.getCreator().equals(owner)) {
+            return reply(player, "trust.group.notcreator", group.getName());
+        }
+        switch (action) {
+            case "delete":
+                groupManager.delete(group);
+                saveGroups();
+                return reply(player, "trust.group.deleted", group.getName());
+            case "add":
+                return lwcTrust.getNameResolver().resolveNames(names).thenApply(profiles -> {
+                    groupManager.addMembers(group, profiles.stream().map(Profile::getUniqueId)
+                            .collect(Collectors.toList()));
+                    saveGroups();
+                    return () -> profiles.forEach(profile -> player.sendMessage(
+                            lwcTrust.getMessage("trust.group.add", profile.getName(), group.getName())));
+                });
+            case "remove":
+                return lwcTrust.getNameResolver().resolveNames(names).thenApply(profiles -> {
+                    groupManager.removeMembers(group, profiles.stream().map(Profile::getUniqueId)
+                            .collect(Collectors.toList()));
+                    saveGroups();
+                    return () -> profiles.forEach(profile -> player.sendMessage(
+                            lwcTrust.getMessage("trust.group.remove", profile.getName(), group.getName())));
+                });
+            default:
+                return reply(player, "trust.group.usage");
+        }
+    }
+
+    private void saveExpiries() {
+        try {
+            lwcTrust.getTrustExpiries().flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void saveGroups() {
+        try {
+            lwcTrust.getGroupManager().save();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Resolve trusted unique ids to names in order, showing groups by their name
+    private CompletableFuture<List<Profile>> resolveTrusted(List<UUID> trusted) {
+        GroupManager groupManager = lwcTrust.getGroupManager();
+        List<UUID> players = trusted.stream().filter(uuid -> groupManager.getGroup(uuid) == null)
+                .collect(Collectors.toList());
+        return lwcTrust.getNameResolver().resolveUniqueIds(players).thenApply(profiles -> {
+            Iterator<Profile> playerProfiles = profiles.iterator();
+            List<Profile> resolved = new ArrayList<>(trusted.size());
+            for (UUID uuid : trusted) {
+                TrustGroup group = groupManager.getGroup(uuid);
+                resolved.add(group == null ? playerProfiles.next() : new Profile(uuid, "@" + group.getName()));
+            }
+            return resolved;
+        });
+    }
+
+    private void notifyAdded(Player player, List<Profile> profiles, String durationText) {
+        profiles.forEach(profile -> {
+            player.sendMessage(durationText == null ? lwcTrust.getMessage("trust.add", profile.getName())
+                    : lwcTrust.getMessage("trust.add.timed", profile.getName(), durationText));
+            Player onlinePlayer = Bukkit.getPlayer(profile.getUniqueId());
+            if (onlinePlayer != null) {
+                onlinePlayer.sendMessage(lwcTrust.getMessage("trust.add.notify", player.getName()));
+            }
+        });
+    }
+
+    private CompletableFuture<Runnable> reply(Player player, String key, Object... args) {
+        return CompletableFuture.completedFuture(() -> player.sendMessage(lwcTrust.getMessage(key, args)));
+    }
+
+    // Parse a duration such as 2h or 1d12h into milliseconds, or 0 if the text is not a duration
+    private static long parseDuration(String text) {
+        Matcher matcher = DURATION_PATTERN.matcher(text);
+        long duration = 0;
+        int end = 0;
+        while (matcher.find() && matcher.start() == end) {
+            long amount = Long.parseLong(matcher.group(1));
+            switch (Character.toLowerCase(matcher.group(2).charAt(0))) {
+                case 's':
+                    duration += TimeUnit.SECONDS.toMillis(amount);
+                    break;
+                case 'm':
+                    duration += TimeUnit.MINUTES.toMillis(amount);
+                    break;
+                case 'h':
+                    duration += TimeUnit.HOURS.toMillis(amount);
+                    break;
+                case 'd':
+                    duration += TimeUnit.DAYS.toMillis(amount);
+                    break;
+                default:
+                    duration += TimeUnit.DAYS.toMillis(7 * amount);
+                    break;
+            }
+            end = matcher.end();
+        }
+        return end == text.length() ? duration : 0;
+    }
+
+    private static String joinNames(List<Profile> profiles) {
+        return StringUtils.join(profiles.stream().map(Profile::getName).collect(Collectors.toList()), ", ");
+    }
+
+    // Pages of an owner's trust list, rendered for one trust epoch and one set of settings
+    private static final class RenderedList {
+
+        private final long epoch;
+        private final Settings settings;
+        private final Map<Integer, String> pages = new ConcurrentHashMap<>();
+
+        private RenderedList(long epoch, Settings settings) {
+            this.epoch = epoch;
+            this.settings = settings;
+        }
+
+    }
+
+    // Run a command in its owner's queue, then send its messages on the main thread
+    private void submit(Player player, Supplier<CompletableFuture<Runnable>> command) {
+        ownerQueue.submit(player.getUniqueId(), command).whenComplete((messages, throwable) -> {
+            if (!lwcTrust.isEnabled()) {
+                return;
+            }
+            if (throwable != null) {
+                lwcTrust.getLogger().warning("Unable to run trust command for " + player.getName() + ": "
+                        + throwable.getMessage());
+                Bukkit.getScheduler().runTask(lwcTrust, () -> player.sendMessage(lwcTrust.getMessage("trust.error")));
+            } else {
+                Bukkit.getScheduler().runTask(lwcTrust, messages);
+            }
+        });
+    }
+
+}
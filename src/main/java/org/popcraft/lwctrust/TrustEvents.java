@@ -0,0 +1,61 @@
+package org.popcraft.lwctrust;
+
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Profiling events for trust loads, saves, access checks and commands. This base class does nothing, so disabled
+ * events only cost a call returning null. When enabled on a runtime with Java Flight Recorder, events are emitted
+ * as JFR events which line up with other activity in a recording.
+ */
+public class TrustEvents {
+
+    public static final TrustEvents NONE = new TrustEvents();
+
+    /**
+     * Get events backed by Java Flight Recorder, falling back to no events where it is not available.
+     */
+    public static TrustEvents create(Logger logger) {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (TrustEvents) Class.forName("org.popcraft.lwctrust.jfr.JfrTrustEvents")
+                    .getConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            logger.warning("Java Flight Recorder is not available, profiling events are disabled");
+            return NONE;
+        }
+    }
+
+    public Object beginLoad() {
+        return null;
+    }
+
+    public void commitLoad(Object event, UUID owner, boolean hit, int trusts) {
+    }
+
+    /**
+     * Begin a save, which is either written immediately or only queued for a background write. Background
+     * writes of several owners at once are recorded without an owner.
+     */
+    public Object beginSave() {
+        return null;
+    }
+
+    public void commitSave(Object event, UUID owner, int trusts, boolean queued) {
+    }
+
+    public Object beginAccess() {
+        return null;
+    }
+
+    public void commitAccess(Object event, String owner, UUID requester, int decision) {
+    }
+
+    public Object beginCommand() {
+        return null;
+    }
+
+    public void commitCommand(Object event, String subcommand, String sender) {
+    }
+
+}
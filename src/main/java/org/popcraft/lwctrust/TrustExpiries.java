@@ -0,0 +1,296 @@
+package org.popcraft.lwctrust;
+
+import org.popcraft.lwctrust.storage.Files2;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Deadlines of timed trusts, kept in memory and saved to a file next to the trust data so they survive restarts.
+ * Due trusts are found with a timing wheel, so trusts which are not due yet cost nothing per tick.
+ * <p>
+ * Changes are appended to a journal as they are made, which costs only as much as the change, and the journal is
+ * folded into the file by a full save now and then.
+ * <p>
+ * Deadlines are not part of trust storage, which keeps every storage engine's format unchanged. Trust archives
+ * carry them along with each owner. Servers sharing storage only see the trust itself, and the server which
+ * granted it removes it once it is due, which then reaches the others like any other removal.
+ */
+public class TrustExpiries {
+
+    private static final int MAGIC = 0x4c575445;
+    private static final long TICK_MILLIS = 1000;
+    // Journal deadline of a trust which was made permanent or removed
+    private static final long CLEARED = 0;
+
+    private final File file;
+    private final File journal;
+    private final Map<Grant, Long> deadlines = new ConcurrentHashMap<>();
+    // Latest deadline of each trust changed since the last flush, also held while changing the deadlines
+    private final Map<Grant, Long> pending = new HashMap<>();
+    private final TimingWheel<Grant> wheel = new TimingWheel<>(TICK_MILLIS, System.currentTimeMillis());
+    private volatile boolean dirty;
+
+    public TrustExpiries(File file) {
+        this.file = file;
+        this.journal = new File(file.getPath() + ".log");
+    }
+
+    public synchronized void load() throws IOException {
+        Map<Grant, Long> stored = new HashMap<>();
+        if (file.exists()) {
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (input.readInt() != MAGIC) {
+                    throw new IOException("Invalid trust expiry file " + file);
+                }
+                int count = input.readInt();
+                for (int i = 0; i < count; ++i) {
+                    stored.put(readGrant(input), input.readLong());
+                }
+            }
+        }
+        if (journal.exists()) {
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(journal)))) {
+                while (true) {
+                    Grant grant = readGrant(input);
+                    long deadline = input.readLong();
+                    if (deadline == CLEARED) {
+                        stored.remove(grant);
+                    } else {
+                        stored.put(grant, deadline);
+                    }
+                }
+            } catch (EOFException e) {
+                // End of the journal, or a change cut short by a crash, which was never acknowledged
+            }
+        }
+        stored.forEach((grant, deadline) -> {
+            // Deadlines set since startup are newer than the ones in the file
+            if (deadlines.putIfAbsent(grant, deadline) == null) {
+                wheel.schedule(grant, deadline);
+            }
+        });
+        if (journal.exists()) {
+            // Folded into the file right away, since new changes must not be appended after a cut short change
+            dirty = true;
+            save();
+        }
+    }
+
+    /**
+     * Append the changes made since the last flush to the journal.
+     */
+    public synchronized void flush() throws IOException {
+        Map<Grant, Long> changes;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            changes = new HashMap<>(pending);
+            pending.clear();
+        }
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(journal, true)))) {
+            for (Map.Entry<Grant, Long> entry : changes.entrySet()) {
+                writeGrant(output, entry.getKey());
+                output.writeLong(entry.getValue());
+            }
+        } catch (IOException e) {
+            restore(changes);
+            throw e;
+        }
+    }
+
+    /**
+     * Write every deadline to the file and start a new journal.
+     */
+    public synchronized void save() throws IOException {
+        List<Map.Entry<Grant, Long>> entries;
+        Map<Grant, Long> changes;
+        // Taken together, so every change is either part of the file or still pending afterwards
+        synchronized (pending) {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            entries = new ArrayList<>(deadlines.entrySet());
+            changes = new HashMap<>(pending);
+            pending.clear();
+        }
+        Path target = file.toPath();
+        Path temporary = target.resolveSibling(file.getName() + ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temporary)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(entries.size());
+                for (Map.Entry<Grant, Long> entry : entries) {
+                    writeGrant(output, entry.getKey());
+                    output.writeLong(entry.getValue());
+                }
+            }
+            Files2.replaceAtomically(temporary, target);
+        } catch (IOException e) {
+            restore(changes);
+            throw e;
+        }
+        // Replaying the journal over the new file changes nothing, so a crash before this is harmless
+        Files.deleteIfExists(journal.toPath());
+    }
+
+    // Put back changes which could not be written, unless they were changed again since
+    private void restore(Map<Grant, Long> changes) {
+        synchronized (pending) {
+            changes.forEach(pending::putIfAbsent);
+            dirty = true;
+        }
+    }
+
+    private void record(Grant grant, long deadline) {
+        pending.put(grant, deadline);
+        dirty = true;
+    }
+
+    /**
+     * Set the time in milliseconds at which an owner's trusts expire.
+     */
+    public void expireAt(UUID owner, Collection<UUID> trusted, long deadline) {
+        synchronized (pending) {
+            for (UUID uuid : trusted) {
+                Grant grant = new Grant(owner, uuid);
+                deadlines.put(grant, deadline);
+                wheel.schedule(grant, deadline);
+                record(grant, deadline);
+            }
+        }
+    }
+
+    /**
+     * Make an owner's trusts permanent again, returning whether any of them had a deadline.
+     */
+    public boolean clear(UUID owner, Collection<UUID> trusted) {
+        boolean cleared = false;
+        synchronized (pending) {
+            for (UUID uuid : trusted) {
+                Grant grant = new Grant(owner, uuid);
+                if (deadlines.remove(grant) != null) {
+                    wheel.cancel(grant);
+                    record(grant, CLEARED);
+                    cleared = true;
+                }
+            }
+        }
+        return cleared;
+    }
+
+    /**
+     * Make every trust of some owners permanent, returning whether any of them had a deadline.
+     */
+    public boolean clearOwners(Set<UUID> owners) {
+        boolean cleared = false;
+        synchronized (pending) {
+            Iterator<Grant> iterator = deadlines.keySet().iterator();
+            while (iterator.hasNext()) {
+                Grant grant = iterator.next();
+                if (owners.contains(grant.owner)) {
+                    iterator.remove();
+                    wheel.cancel(grant);
+                    record(grant, CLEARED);
+                    cleared = true;
+                }
+            }
+        }
+        return cleared;
+    }
+
+    /**
+     * Get the trusts which came due up to a time, by owner. Their deadlines stay recorded until they are removed
+     * with {@link #removeExpired}.
+     */
+    public Map<UUID, List<UUID>> advance(long now) {
+        Map<UUID, List<UUID>> expired = new HashMap<>();
+        for (Grant grant : wheel.advance(now)) {
+            expired.computeIfAbsent(grant.owner, owner -> new ArrayList<>()).add(grant.trusted);
+        }
+        return expired;
+    }
+
+    /**
+     * Forget the deadlines of an owner's trusts which are still due, returning those trusts. Trusts which were
+     * renewed or made permanent since they came due are left alone.
+     */
+    public List<UUID> removeExpired(UUID owner, Collection<UUID> trusted, long now) {
+        List<UUID> removed = new ArrayList<>();
+        synchronized (pending) {
+            for (UUID uuid : trusted) {
+                Grant grant = new Grant(owner, uuid);
+                Long deadline = deadlines.get(grant);
+                if (deadline != null && deadline <= now && deadlines.remove(grant, deadline)) {
+                    record(grant, CLEARED);
+                    removed.add(uuid);
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Get every deadline, by owner and then by trusted player.
+     */
+    public Map<UUID, Map<UUID, Long>> getDeadlines() {
+        Map<UUID, Map<UUID, Long>> byOwner = new HashMap<>();
+        deadlines.forEach((grant, deadline) ->
+                byOwner.computeIfAbsent(grant.owner, owner -> new HashMap<>()).put(grant.trusted, deadline));
+        return byOwner;
+    }
+
+    public int size() {
+        return deadlines.size();
+    }
+
+    private static Grant readGrant(DataInputStream input) throws IOException {
+        return new Grant(new UUID(input.readLong(), input.readLong()), new UUID(input.readLong(), input.readLong()));
+    }
+
+    private static void writeGrant(DataOutputStream output, Grant grant) throws IOException {
+        output.writeLong(grant.owner.getMostSignificantBits());
+        output.writeLong(grant.owner.getLeastSignificantBits());
+        output.writeLong(grant.trusted.getMostSignificantBits());
+        output.writeLong(grant.trusted.getLeastSignificantBits());
+    }
+
+    // A single trust of an owner
+    private static final class Grant {
+
+        private final UUID owner;
+        private final UUID trusted;
+
+        private Grant(UUID owner, UUID trusted) {
+            this.owner = owner;
+            this.trusted = trusted;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Grant)) {
+                return false;
+            }
+            Grant grant = (Grant) o;
+            return owner.equals(grant.owner) && trusted.equals(grant.trusted);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * owner.hashCode() + trusted.hashCode();
+        }
+
+    }
+
+}
@@ -0,0 +1,43 @@
+package org.popcraft.lwctrust;
+
+import java.util.UUID;
+
+/**
+ * Immutable named group of players, managed by the player who created it. Owners trust a group by adding its id
+ * to their trusts, which then also trusts every member of the group.
+ */
+public final class TrustGroup {
+
+    private final UUID id;
+    private final String name;
+    private final UUID creator;
+    private final TrustSet members;
+
+    public TrustGroup(UUID id, String name, UUID creator, TrustSet members) {
+        this.id = id;
+        this.name = name;
+        this.creator = creator;
+        this.members = members;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public UUID getCreator() {
+        return creator;
+    }
+
+    public TrustSet getMembers() {
+        return members;
+    }
+
+    public TrustGroup withMembers(TrustSet members) {
+        return members == this.members ? this : new TrustGroup(id, name, creator, members);
+    }
+
+}
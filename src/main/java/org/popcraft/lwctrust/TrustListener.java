@@ -0,0 +1,51 @@
+package org.popcraft.lwctrust;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.popcraft.lwctrust.profile.Profile;
+
+import java.util.UUID;
+
+/**
+ * Listener used to prefetch trusts before they are needed on the main thread, and to record player names.
+ */
+public class TrustListener implements Listener {
+
+    private LWCTrust lwcTrust;
+
+    public TrustListener(LWCTrust lwcTrust) {
+        this.lwcTrust = lwcTrust;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+        // This event is already called off the main thread, so trusts can be read directly
+        lwcTrust.getTrustCache().load(event.getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        Player player = event.getPlayer();
+        // Keep the name table up to date, so trust commands never have to look up players who joined
+        lwcTrust.getNameResolver().remember(new Profile(player.getUniqueId(), player.getName()));
+        prefetch(player.getUniqueId());
+    }
+
+    private void prefetch(UUID uuid) {
+        TrustCache trustCache = lwcTrust.getTrustCache();
+        trustCache.loadAsync(uuid);
+        // Owners who trust this player are the ones whose protections they are likely to open
+        ReverseTrustIndex reverseIndex = trustCache.getReverseIndex();
+        if (reverseIndex != null) {
+            reverseIndex.getOwners(uuid).forEach(trustCache::loadAsync);
+        }
+    }
+
+}
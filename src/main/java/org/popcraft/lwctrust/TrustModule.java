@@ -3,34 +3,129 @@ package org.popcraft.lwctrust;
 import com.griefcraft.model.Permission;
 import com.griefcraft.scripting.JavaModule;
 import com.griefcraft.scripting.event.LWCAccessEvent;
+import org.popcraft.lwctrust.storage.MappedTrustIndex;
 
-import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
 
 /**
  * Trust module to interface with the LWC plugin.
  */
 public class TrustModule extends JavaModule {
 
-    LWCTrust lwcTrust;
+    private static final long TIMEOUT_WARNING_INTERVAL = TimeUnit.MINUTES.toNanos(1);
 
-    public TrustModule(LWCTrust lwcTrust) {
-        this.lwcTrust = lwcTrust;
+    private Logger logger;
+    private TrustCache trustCache;
+    private GroupManager groupManager;
+    private Executor loadExecutor;
+    private long loadTimeout;
+    private AccessCache accessCache;
+    private OwnerCache ownerCache;
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong lastTimeoutWarning = new AtomicLong(System.nanoTime() - TIMEOUT_WARNING_INTERVAL);
+
+    /**
+     * Create the module. Trusts which are not cached are read on their own executor, so access checks never queue
+     * behind other file I/O, and a check waits at most the load timeout in milliseconds for them. The wait happens on
+     * the main thread, so it should stay well below a tick; a timeout of zero denies at once and only starts the load.
+     */
+    public TrustModule(Logger logger, TrustCache trustCache, GroupManager groupManager, Executor loadExecutor,
+                       long loadTimeout, int accessCacheSize) {
+        this.logger = logger;
+        this.trustCache = trustCache;
+        this.groupManager = groupManager;
+        this.loadExecutor = loadExecutor;
+        this.loadTimeout = loadTimeout;
+        this.accessCache = new AccessCache(accessCacheSize);
+        this.ownerCache = new OwnerCache(accessCacheSize);
     }
 
     @Override
     public void onAccessRequest(LWCAccessEvent event) {
-        UUID owner;
+        long start = System.nanoTime();
+        Object profilingEvent = trustCache.getEvents().beginAccess();
+        int decision = AccessCache.UNKNOWN;
         try {
-            owner = UUID.fromString(event.getProtection().getOwner());
-        } catch (IllegalArgumentException e) {
-            return;
+            decision = checkAccess(event);
+        } finally {
+            trustCache.getStats().getAccessLatency().record(System.nanoTime() - start);
+            if (profilingEvent != null) {
+                trustCache.getEvents().commitAccess(profilingEvent, event.getProtection().getOwner(),
+                        event.getPlayer().getUniqueId(), decision);
+            }
+        }
+    }
+
+    private int checkAccess(LWCAccessEvent event) {
+        UUID owner = ownerCache.resolve(event.getProtection().getOwner());
+        if (owner == null) {
+            return AccessCache.UNKNOWN;
         }
         UUID requester = event.getPlayer().getUniqueId();
-        List<UUID> trusted = lwcTrust.getTrustCache().load(owner);
-        if (trusted.contains(requester)) {
+        // Reuse an earlier decision if the owner's trusts have not changed since
+        long epoch = trustCache.getEpoch(owner);
+        int decision = accessCache.get(owner, requester, epoch);
+        if (decision == AccessCache.UNKNOWN) {
+            Boolean trusted = isTrusted(owner, requester);
+            if (trusted == null) {
+                return AccessCache.UNKNOWN;
+            }
+            accessCache.put(owner, requester, epoch, trusted);
+            decision = trusted ? AccessCache.TRUSTED : AccessCache.NOT_TRUSTED;
+        }
+        if (decision == AccessCache.TRUSTED) {
             event.setAccess(Permission.Access.PLAYER);
         }
+        return decision;
+    }
+
+    private Boolean isTrusted(UUID owner, UUID requester) {
+        TrustSet trusted = trustCache.getIfCached(owner);
+        MappedTrustIndex index = trustCache.getIndex();
+        if (trusted == null && index != null) {
+            // Answer cold lookups straight from the binary index when it is up to date for this owner
+            MappedTrustIndex.Result result = index.contains(owner, requester);
+            // The index only knows direct trusts, so with groups it can only confirm a trust
+            if (result == MappedTrustIndex.Result.TRUSTED
+                    || result == MappedTrustIndex.Result.NOT_TRUSTED && groupManager.isEmpty()) {
+                trustCache.getStats().recordIndexed();
+                return result == MappedTrustIndex.Result.TRUSTED;
+            }
+        }
+        if (trusted == null) {
+            // Read the trusts on the load executor, waiting at most a few milliseconds before giving up on this request.
+            // Giving up leaves the decision to LWC, which denies the player on a private protection, while the load
+            // carries on so the next check is answered from the cache
+            try {
+                trusted = trustCache.loadAsync(owner, loadExecutor).get(loadTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (TimeoutException e) {
+                warnTimeout();
+                return null;
+            } catch (ExecutionException e) {
+                return null;
+            }
+        }
+        return groupManager.expand(owner, trusted).contains(requester);
+    }
+
+    // Denied checks are counted and reported at most once a minute, since they happen on the main thread
+    private void warnTimeout() {
+        long count = timeouts.incrementAndGet();
+        long now = System.nanoTime();
+        long last = lastTimeoutWarning.get();
+        if (now - last >= TIMEOUT_WARNING_INTERVAL && lastTimeoutWarning.compareAndSet(last, now)) {
+            logger.warning(count + " access checks timed out loading trusts and were denied, consider raising "
+                    + "load-timeout or access-threads");
+        }
     }
 
 }
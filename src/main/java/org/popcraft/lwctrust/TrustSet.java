@@ -0,0 +1,193 @@
+package org.popcraft.lwctrust;
+
+import java.util.*;
+
+/**
+ * Immutable snapshot of the players trusted by an owner. Changes produce a new copy, so readers never observe a
+ * partially updated set. Players are stored as ids from the {@link UuidDictionary}, in a sorted int array for
+ * small sets and an open-addressed hash table for large ones, so checking membership does not allocate.
+ */
+public final class TrustSet implements Iterable<UUID> {
+
+    private static final int SMALL_SET = 64;
+    private static final TrustSet EMPTY = new TrustSet(new int[0], 0);
+
+    // Sorted ids when the array length equals the size, otherwise a hash table of id + 1 where 0 is free
+    private final int[] ids;
+    private final int size;
+
+    private TrustSet(int[] ids, int size) {
+        this.ids = ids;
+        this.size = size;
+    }
+
+    public static TrustSet empty() {
+        return EMPTY;
+    }
+
+    public static TrustSet of(Collection<UUID> trusted) {
+        if (trusted == null || trusted.isEmpty()) {
+            return EMPTY;
+        }
+        return create(intern(trusted));
+    }
+
+    public boolean contains(UUID uuid) {
+        int id = UuidDictionary.lookup(uuid);
+        return id >= 0 && containsId(id);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public TrustSet with(Collection<UUID> added) {
+        int[] addedIds = intern(added);
+        boolean changed = false;
+        for (int id : addedIds) {
+            if (!containsId(id)) {
+                changed = true;
+                break;
+            }
+        }
+        if (!changed) {
+            return this;
+        }
+        int[] sorted = sortedIds();
+        int[] merged = Arrays.copyOf(sorted, sorted.length + addedIds.length);
+        System.arraycopy(addedIds, 0, merged, sorted.length, addedIds.length);
+        return create(merged);
+    }
+
+    public TrustSet without(Collection<UUID> removed) {
+        int[] removedIds = new int[removed.size()];
+        int count = 0;
+        for (UUID uuid : removed) {
+            int id = UuidDictionary.lookup(uuid);
+            if (id >= 0 && containsId(id)) {
+                removedIds[count++] = id;
+            }
+        }
+        if (count == 0) {
+            return this;
+        }
+        Arrays.sort(removedIds, 0, count);
+        int[] sorted = sortedIds();
+        int[] remaining = new int[sorted.length];
+        int length = 0;
+        for (int id : sorted) {
+            if (Arrays.binarySearch(removedIds, 0, count, id) < 0) {
+                remaining[length++] = id;
+            }
+        }
+        return create(Arrays.copyOf(remaining, length));
+    }
+
+    public List<UUID> toList() {
+        int[] sorted = sortedIds();
+        List<UUID> list = new ArrayList<>(sorted.length);
+        for (int id : sorted) {
+            list.add(UuidDictionary.get(id));
+        }
+        return list;
+    }
+
+    @Override
+    public Iterator<UUID> iterator() {
+        int[] sorted = sortedIds();
+        return new Iterator<UUID>() {
+
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < sorted.length;
+            }
+
+            @Override
+            public UUID next() {
+                if (index >= sorted.length) {
+                    throw new NoSuchElementException();
+                }
+                return UuidDictionary.get(sorted[index++]);
+            }
+
+        };
+    }
+
+    private boolean containsId(int id) {
+        if (ids.length == size) {
+            return Arrays.binarySearch(ids, id) >= 0;
+        }
+        int mask = ids.length - 1;
+        for (int slot = hash(id) & mask; ids[slot] != 0; slot = (slot + 1) & mask) {
+            if (ids[slot] == id + 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Ids in ascending order, which for small sets is the backing array itself and must not be modified
+    private int[] sortedIds() {
+        if (ids.length == size) {
+            return ids;
+        }
+        int[] sorted = new int[size];
+        int length = 0;
+        for (int slot : ids) {
+            if (slot != 0) {
+                sorted[length++] = slot - 1;
+            }
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    // Build a set from ids in any order, which may contain duplicates
+    private static TrustSet create(int[] ids) {
+        Arrays.sort(ids);
+        int length = 0;
+        for (int i = 0; i < ids.length; ++i) {
+            if (i == 0 || ids[i] != ids[i - 1]) {
+                ids[length++] = ids[i];
+            }
+        }
+        if (length == 0) {
+            return EMPTY;
+        }
+        if (length <= SMALL_SET) {
+            return new TrustSet(length == ids.length ? ids : Arrays.copyOf(ids, length), length);
+        }
+        // Keep the table at most half full, so probe sequences stay short
+        int[] table = new int[Integer.highestOneBit(length - 1) << 2];
+        int mask = table.length - 1;
+        for (int i = 0; i < length; ++i) {
+            int slot = hash(ids[i]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = ids[i] + 1;
+        }
+        return new TrustSet(table, length);
+    }
+
+    private static int[] intern(Collection<UUID> uuids) {
+        int[] ids = new int[uuids.size()];
+        int i = 0;
+        for (UUID uuid : uuids) {
+            ids[i++] = UuidDictionary.intern(uuid);
+        }
+        return ids;
+    }
+
+    private static int hash(int id) {
+        int hash = id * 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+}
@@ -0,0 +1,95 @@
+package org.popcraft.lwctrust;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the trust cache, storage and access checks.
+ */
+public class TrustStats {
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder filtered = new LongAdder();
+    private final LongAdder indexed = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder saves = new LongAdder();
+    private final LatencyHistogram loadLatency = new LatencyHistogram();
+    private final LatencyHistogram saveLatency = new LatencyHistogram();
+    private final LatencyHistogram accessLatency = new LatencyHistogram();
+
+    public void recordHit() {
+        hits.increment();
+    }
+
+    public void recordMiss() {
+        misses.increment();
+    }
+
+    /**
+     * Record a lookup answered by the owner filter, without the cache or storage.
+     */
+    public void recordFiltered() {
+        filtered.increment();
+    }
+
+    /**
+     * Record a lookup answered by the binary index, without the cache or storage.
+     */
+    public void recordIndexed() {
+        indexed.increment();
+    }
+
+    public void recordEviction() {
+        evictions.increment();
+    }
+
+    public void recordSaves(int count) {
+        saves.add(count);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getFiltered() {
+        return filtered.sum();
+    }
+
+    public long getIndexed() {
+        return indexed.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getSaves() {
+        return saves.sum();
+    }
+
+    /**
+     * Get the share of cache lookups which were hits, as a percentage.
+     */
+    public double getHitRate() {
+        long hits = getHits();
+        long lookups = hits + getMisses();
+        return lookups == 0 ? 0 : 100.0 * hits / lookups;
+    }
+
+    public LatencyHistogram getLoadLatency() {
+        return loadLatency;
+    }
+
+    public LatencyHistogram getSaveLatency() {
+        return saveLatency;
+    }
+
+    public LatencyHistogram getAccessLatency() {
+        return accessLatency;
+    }
+
+}
@@ -0,0 +1,62 @@
+package org.popcraft.lwctrust;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Server-wide dictionary giving every unique id seen in trusts a small int id, so trust sets can store ints
+ * instead of UUID objects. Ids are never reused, and the dictionary only grows while the server is running.
+ */
+public final class UuidDictionary {
+
+    private static final ConcurrentHashMap<UUID, Integer> IDS = new ConcurrentHashMap<>();
+    private static volatile UUID[] uuids = new UUID[1024];
+    private static int next;
+
+    private UuidDictionary() {
+    }
+
+    /**
+     * Get the id of a unique id, assigning a new id if it has none yet.
+     */
+    public static int intern(UUID uuid) {
+        Integer id = IDS.get(uuid);
+        if (id != null) {
+            return id;
+        }
+        synchronized (UuidDictionary.class) {
+            id = IDS.get(uuid);
+            if (id != null) {
+                return id;
+            }
+            int assigned = next++;
+            UUID[] table = uuids;
+            if (assigned == table.length) {
+                table = Arrays.copyOf(table, table.length * 2);
+            }
+            table[assigned] = uuid;
+            uuids = table;
+            // Published last, so anyone who finds the id can also find the unique id
+            IDS.put(uuid, assigned);
+            return assigned;
+        }
+    }
+
+    /**
+     * Get the id of a unique id without assigning one, or -1 if it has none.
+     */
+    public static int lookup(UUID uuid) {
+        Integer id = IDS.get(uuid);
+        return id == null ? -1 : id;
+    }
+
+    public static UUID get(int id) {
+        return uuids[id];
+    }
+
+    public static int size() {
+        return IDS.size();
+    }
+
+}
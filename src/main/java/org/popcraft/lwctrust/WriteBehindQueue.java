@@ -0,0 +1,124 @@
+package org.popcraft.lwctrust;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Queue of trusts waiting to be written. Repeated changes to the same owner are merged into a single write, and
+ * pending writes are flushed in batches on a background thread.
+ */
+public class WriteBehindQueue {
+
+    @FunctionalInterface
+    public interface Writer {
+        void write(Map<UUID, TrustSet> batch) throws IOException;
+    }
+
+    private final Logger logger;
+    private final Writer writer;
+    private final int batchSize;
+    private final ConcurrentHashMap<UUID, TrustSet> dirty = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushNanos = new AtomicLong();
+    private volatile long lastFlushNanos;
+
+    public WriteBehindQueue(Logger logger, Writer writer, long flushInterval, int batchSize) {
+        this.logger = logger;
+        this.writer = writer;
+        this.batchSize = Math.max(1, batchSize);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LWCTrust Flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, flushInterval);
+        scheduler.scheduleWithFixedDelay(this::flushBatch, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void enqueue(UUID key, TrustSet trusts) {
+        dirty.put(key, trusts);
+    }
+
+    /**
+     * Get trusts that have been changed but not yet written, or null if there are none.
+     */
+    public TrustSet getPending(UUID key) {
+        return dirty.get(key);
+    }
+
+    public int getQueueDepth() {
+        return dirty.size();
+    }
+
+    public double getLastFlushMillis() {
+        return lastFlushNanos / 1e6;
+    }
+
+    public double getAverageFlushMillis() {
+        long count = flushes.get();
+        return count == 0 ? 0 : flushNanos.get() / 1e6 / count;
+    }
+
+    /**
+     * Write everything that is pending now, while the background flush keeps running.
+     */
+    public int flushAll() {
+        return flush(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Stop the background flush and write everything that is still pending.
+     */
+    public int drain() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return flush(Integer.MAX_VALUE);
+    }
+
+    private void flushBatch() {
+        try {
+            flush(batchSize);
+        } catch (Throwable t) {
+            logger.warning("Unable to flush trusts: " + t);
+        }
+    }
+
+    // Flushes take turns, so an older batch can never be written over a newer one of the same owner
+    private synchronized int flush(int limit) {
+        if (dirty.isEmpty()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        Map<UUID, TrustSet> batch = new HashMap<>();
+        Iterator<Map.Entry<UUID, TrustSet>> iterator = dirty.entrySet().iterator();
+        while (iterator.hasNext() && batch.size() < limit) {
+            Map.Entry<UUID, TrustSet> entry = iterator.next();
+            batch.put(entry.getKey(), entry.getValue());
+        }
+        try {
+            writer.write(batch);
+        } catch (IOException e) {
+            logger.warning("Unable to save " + batch.size() + " trusts, will retry: " + e.getMessage());
+            return 0;
+        }
+        // Keep entries which were changed again while they were being written
+        batch.forEach(dirty::remove);
+        long elapsed = System.nanoTime() - start;
+        lastFlushNanos = elapsed;
+        flushNanos.addAndGet(elapsed);
+        flushes.incrementAndGet();
+        return batch.size();
+    }
+
+}
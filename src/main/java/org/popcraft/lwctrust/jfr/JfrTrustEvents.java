@@ -0,0 +1,155 @@
+package org.popcraft.lwctrust.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.popcraft.lwctrust.AccessCache;
+import org.popcraft.lwctrust.TrustEvents;
+
+import java.util.UUID;
+
+/**
+ * Trust events emitted through Java Flight Recorder. This class is only loaded when JFR is available. Events are
+ * only created while a recording has them enabled, and their fields are only filled in when they will be
+ * committed.
+ */
+public class JfrTrustEvents extends TrustEvents {
+
+    private static final EventType LOAD = EventType.getEventType(LoadEvent.class);
+    private static final EventType SAVE = EventType.getEventType(SaveEvent.class);
+    private static final EventType ACCESS = EventType.getEventType(AccessEvent.class);
+    private static final EventType COMMAND = EventType.getEventType(CommandEvent.class);
+
+    @Override
+    public Object beginLoad() {
+        return LOAD.isEnabled() ? begin(new LoadEvent()) : null;
+    }
+
+    @Override
+    public void commitLoad(Object event, UUID owner, boolean hit, int trusts) {
+        LoadEvent load = (LoadEvent) end(event);
+        if (load != null) {
+            load.owner = owner.toString();
+            load.hit = hit;
+            load.trusts = trusts;
+            load.commit();
+        }
+    }
+
+    @Override
+    public Object beginSave() {
+        return SAVE.isEnabled() ? begin(new SaveEvent()) : null;
+    }
+
+    @Override
+    public void commitSave(Object event, UUID owner, int trusts, boolean queued) {
+        SaveEvent save = (SaveEvent) end(event);
+        if (save != null) {
+            save.owner = owner == null ? null : owner.toString();
+            save.trusts = trusts;
+            save.queued = queued;
+            save.commit();
+        }
+    }
+
+    @Override
+    public Object beginAccess() {
+        return ACCESS.isEnabled() ? begin(new AccessEvent()) : null;
+    }
+
+    @Override
+    public void commitAccess(Object event, String owner, UUID requester, int decision) {
+        AccessEvent access = (AccessEvent) end(event);
+        if (access != null) {
+            access.owner = owner;
+            access.requester = requester == null ? null : requester.toString();
+            access.decision = decision == AccessCache.TRUSTED ? "trusted"
+                    : decision == AccessCache.NOT_TRUSTED ? "not trusted" : "undecided";
+            access.commit();
+        }
+    }
+
+    @Override
+    public Object beginCommand() {
+        return COMMAND.isEnabled() ? begin(new CommandEvent()) : null;
+    }
+
+    @Override
+    public void commitCommand(Object event, String subcommand, String sender) {
+        CommandEvent command = (CommandEvent) end(event);
+        if (command != null) {
+            command.subcommand = subcommand;
+            command.sender = sender;
+            command.commit();
+        }
+    }
+
+    private static Event begin(Event event) {
+        event.begin();
+        return event;
+    }
+
+    // End the event, returning null if it is below the recording's threshold and will not be committed
+    private static Event end(Object event) {
+        if (event == null) {
+            return null;
+        }
+        Event ended = (Event) event;
+        ended.end();
+        return ended.shouldCommit() ? ended : null;
+    }
+
+    @Name("org.popcraft.lwctrust.Load")
+    @Label("Trust Load")
+    @Category("LWCTrust")
+    @StackTrace(false)
+    static class LoadEvent extends Event {
+        @Label("Owner")
+        String owner;
+        @Label("Cache Hit")
+        boolean hit;
+        @Label("Trusts")
+        int trusts;
+    }
+
+    @Name("org.popcraft.lwctrust.Save")
+    @Label("Trust Save")
+    @Category("LWCTrust")
+    @StackTrace(false)
+    static class SaveEvent extends Event {
+        @Label("Owner")
+        String owner;
+        @Label("Trusts")
+        int trusts;
+        @Label("Queued")
+        boolean queued;
+    }
+
+    @Name("org.popcraft.lwctrust.AccessCheck")
+    @Label("Trust Access Check")
+    @Category("LWCTrust")
+    @StackTrace(false)
+    static class AccessEvent extends Event {
+        @Label("Owner")
+        String owner;
+        @Label("Requester")
+        String requester;
+        @Label("Decision")
+        String decision;
+    }
+
+    @Name("org.popcraft.lwctrust.Command")
+    @Label("Trust Command")
+    @Category("LWCTrust")
+    @StackTrace(false)
+    static class CommandEvent extends Event {
+        @Label("Subcommand")
+        String subcommand;
+        @Label("Sender")
+        String sender;
+    }
+
+}
@@ -0,0 +1,129 @@
+package org.popcraft.lwctrust.locale;
+
+import org.bukkit.ChatColor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.MissingFormatArgumentException;
+
+/**
+ * A locale message compiled into literal segments and argument slots, with color codes already translated. Only
+ * the {@code %s}, {@code %d}, {@code %n} and {@code %%} format specifiers (optionally with an argument index) are
+ * compiled, anything else falls back to {@link String#format}.
+ */
+final class MessageTemplate {
+
+    private static final String COLOR_CODES = "0123456789AaBbCcDdEeFfKkLlMmNnOoRrXx";
+    private static final String HEX_DIGITS = "0123456789AaBbCcDdEeFf";
+
+    private final String[] literals;
+    private final int[] slots;
+    private final String format;
+    private final int length;
+
+    private MessageTemplate(String[] literals, int[] slots, String format) {
+        this.literals = literals;
+        this.slots = slots;
+        this.format = format;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.length = length;
+    }
+
+    static MessageTemplate compile(String message) {
+        String translated = translateColors(message);
+        List<String> literals = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int next = 0;
+        for (int i = 0; i < translated.length(); ++i) {
+            char c = translated.charAt(i);
+            if (c != '%') {
+                literal.append(c);
+                continue;
+            }
+            int end = i + 1;
+            int index = -1;
+            while (end < translated.length() && Character.isDigit(translated.charAt(end))) {
+                ++end;
+            }
+            if (end > i + 1 && end < translated.length() && translated.charAt(end) == '$') {
+                index = Integer.parseInt(translated.substring(i + 1, end)) - 1;
+                ++end;
+            } else {
+                end = i + 1;
+            }
+            char conversion = end < translated.length() ? translated.charAt(end) : 0;
+            if (index < 0 && conversion == '%') {
+                literal.append('%');
+            } else if (index < 0 && conversion == 'n') {
+                literal.append(System.lineSeparator());
+            } else if (conversion == 's' || conversion == 'd') {
+                literals.add(literal.toString());
+                literal.setLength(0);
+                slots.add(index < 0 ? next++ : index);
+            } else {
+                return new MessageTemplate(new String[]{translated}, new int[0], translated);
+            }
+            i = end;
+        }
+        literals.add(literal.toString());
+        return new MessageTemplate(literals.toArray(new String[0]),
+                slots.stream().mapToInt(Integer::intValue).toArray(), null);
+    }
+
+    String render(Object... args) {
+        if (format != null) {
+            return String.format(format, args);
+        }
+        if (slots.length == 0) {
+            return literals[0];
+        }
+        StringBuilder builder = new StringBuilder(length + 16 * slots.length);
+        for (int i = 0; i < slots.length; ++i) {
+            builder.append(literals[i]);
+            int slot = slots[i];
+            if (slot >= args.length) {
+                throw new MissingFormatArgumentException("%" + (slot + 1) + "$s");
+            }
+            builder.append(args[slot]);
+        }
+        return builder.append(literals[slots.length]).toString();
+    }
+
+    // Translate &#RRGGBB colors and & codes to the section sign form, the same way the server does for & codes
+    private static String translateColors(String message) {
+        StringBuilder builder = new StringBuilder(message.length());
+        for (int i = 0; i < message.length(); ++i) {
+            char c = message.charAt(i);
+            if (c == '&' && isRgb(message, i)) {
+                builder.append(ChatColor.COLOR_CHAR).append('x');
+                for (int j = i + 2; j < i + 8; ++j) {
+                    builder.append(ChatColor.COLOR_CHAR).append(message.charAt(j));
+                }
+                i += 7;
+            } else if (c == '&' && i + 1 < message.length() && COLOR_CODES.indexOf(message.charAt(i + 1)) >= 0) {
+                builder.append(ChatColor.COLOR_CHAR).append(Character.toLowerCase(message.charAt(i + 1)));
+                ++i;
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static boolean isRgb(String message, int start) {
+        if (start + 8 > message.length() || message.charAt(start + 1) != '#') {
+            return false;
+        }
+        for (int i = start + 2; i < start + 8; ++i) {
+            if (HEX_DIGITS.indexOf(message.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,36 @@
+package org.popcraft.lwctrust.locale;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.regex.Pattern;
+
+/**
+ * Formats locale messages, falling back to the default locale for missing keys. Every message is compiled once
+ * when loaded, so formatting only has to fill in the arguments.
+ */
+public class Messages {
+
+    public static final Pattern RGB_PATTERN = Pattern.compile("&#[0-9a-fA-F]{6}");
+
+    private final Map<String, MessageTemplate> templates = new HashMap<>();
+
+    public Messages(ResourceBundle defaultBundle, ResourceBundle localeBundle) {
+        for (String key : defaultBundle.keySet()) {
+            templates.put(key, MessageTemplate.compile(defaultBundle.getString(key)));
+        }
+        for (String key : localeBundle.keySet()) {
+            templates.put(key, MessageTemplate.compile(localeBundle.getString(key)));
+        }
+    }
+
+    public String get(String key, Object... args) {
+        MessageTemplate template = templates.get(key);
+        if (template == null) {
+            throw new MissingResourceException("Can't find message for key " + key, Messages.class.getName(), key);
+        }
+        return template.render(args);
+    }
+
+}
@@ -0,0 +1,34 @@
+package org.popcraft.lwctrust.profile;
+
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+
+import java.util.UUID;
+
+/**
+ * Profile source backed by the server's own player data, which may in turn look up unknown names online.
+ * <p>
+ * Bukkit documents that looking up an offline player by name may make a blocking web request, so these lookups are
+ * meant to run off the main thread, which is why they only run on the I/O executor. They only read the server's
+ * player profile cache, which is thread safe, and the player's data file, and never change any server state.
+ */
+public class BukkitProfileSource implements ProfileSource {
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public Profile findByName(String name) {
+        OfflinePlayer offlinePlayer = Bukkit.getOfflinePlayer(name);
+        if (!offlinePlayer.hasPlayedBefore() && !offlinePlayer.isOnline()) {
+            return null;
+        }
+        String knownName = offlinePlayer.getName();
+        return new Profile(offlinePlayer.getUniqueId(), knownName == null ? name : knownName);
+    }
+
+    @Override
+    public Profile findByUniqueId(UUID uniqueId) {
+        String name = Bukkit.getOfflinePlayer(uniqueId).getName();
+        return name == null ? null : new Profile(uniqueId, name);
+    }
+
+}
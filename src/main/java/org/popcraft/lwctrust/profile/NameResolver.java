@@ -0,0 +1,146 @@
+package org.popcraft.lwctrust.profile;
+
+import org.popcraft.lwctrust.Cache;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Resolves player names to unique ids and back without blocking the caller. Names of players who joined are kept
+ * in the name table, others are looked up in batches on the I/O executor and kept in a bounded cache.
+ */
+public class NameResolver {
+
+    private final ProfileSource source;
+    private final NameTable table;
+    private final Executor executor;
+    private final Cache<String, UUID> uniqueIds;
+    private final Cache<UUID, String> names;
+
+    public NameResolver(ProfileSource source, NameTable table, Executor executor, int cacheSize) {
+        this.source = source;
+        this.table = table;
+        this.executor = executor;
+        this.uniqueIds = new Cache<>(cacheSize);
+        this.names = new Cache<>(cacheSize);
+    }
+
+    /**
+     * Record the current name of a player, for example when they join.
+     */
+    public void remember(Profile profile) {
+        table.put(profile);
+        cache(profile);
+    }
+
+    /**
+     * Get a player's name if it is already known, without looking it up.
+     */
+    public String getCachedName(UUID uniqueId) {
+        String name = table.getName(uniqueId);
+        return name == null ? names.get(uniqueId) : name;
+    }
+
+    /**
+     * Resolve names to profiles in the order given. Unknown names and duplicates are left out.
+     */
+    public CompletableFuture<List<Profile>> resolveNames(Collection<String> names) {
+        Map<String, Profile> found = new HashMap<>();
+        // Each name is looked up once, however it is capitalized or repeated
+        Map<String, String> missing = new LinkedHashMap<>();
+        for (String name : names) {
+            String key = name.toLowerCase(Locale.ROOT);
+            UUID uniqueId = table.getUniqueId(name);
+            if (uniqueId == null) {
+                uniqueId = uniqueIds.get(key);
+            }
+            String known = uniqueId == null ? null : getCachedName(uniqueId);
+            if (known != null) {
+                found.put(key, new Profile(uniqueId, known));
+            } else {
+                missing.putIfAbsent(key, name);
+            }
+        }
+        if (missing.isEmpty()) {
+            return CompletableFuture.completedFuture(orderByName(names, found));
+        }
+        return supply(() -> {
+            source.findAllByName(missing.values()).forEach((name, profile) -> {
+                cache(profile);
+                found.put(name.toLowerCase(Locale.ROOT), profile);
+            });
+            return orderByName(names, found);
+        });
+    }
+
+    /**
+     * Resolve unique ids to profiles in the order given. Players whose name is unknown get their unique id as
+     * their name.
+     */
+    public CompletableFuture<List<Profile>> resolveUniqueIds(Collection<UUID> uniqueIds) {
+        Map<UUID, Profile> found = new HashMap<>();
+        Set<UUID> missing = new LinkedHashSet<>();
+        for (UUID uniqueId : uniqueIds) {
+            String name = getCachedName(uniqueId);
+            if (name != null) {
+                found.put(uniqueId, new Profile(uniqueId, name));
+            } else {
+                missing.add(uniqueId);
+            }
+        }
+        if (missing.isEmpty()) {
+            return CompletableFuture.completedFuture(orderByUniqueId(uniqueIds, found));
+        }
+        return supply(() -> {
+            for (Profile profile : source.findAllByUniqueId(missing)) {
+                cache(profile);
+                found.put(profile.getUniqueId(), profile);
+            }
+            return orderByUniqueId(uniqueIds, found);
+        });
+    }
+
+    private void cache(Profile profile) {
+        uniqueIds.put(profile.getName().toLowerCase(Locale.ROOT), profile.getUniqueId());
+        names.put(profile.getUniqueId(), profile.getName());
+    }
+
+    private <T> CompletableFuture<T> supply(Lookup<T> lookup) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return lookup.get();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    private static List<Profile> orderByName(Collection<String> names, Map<String, Profile> found) {
+        Set<UUID> seen = new HashSet<>();
+        List<Profile> profiles = new ArrayList<>();
+        for (String name : names) {
+            Profile profile = found.get(name.toLowerCase(Locale.ROOT));
+            if (profile != null && seen.add(profile.getUniqueId())) {
+                profiles.add(profile);
+            }
+        }
+        return profiles;
+    }
+
+    private static List<Profile> orderByUniqueId(Collection<UUID> uniqueIds, Map<UUID, Profile> found) {
+        List<Profile> profiles = new ArrayList<>(uniqueIds.size());
+        for (UUID uniqueId : uniqueIds) {
+            Profile profile = found.get(uniqueId);
+            profiles.add(profile == null ? new Profile(uniqueId, uniqueId.toString()) : profile);
+        }
+        return profiles;
+    }
+
+    private interface Lookup<T> {
+        T get() throws IOException;
+    }
+
+}
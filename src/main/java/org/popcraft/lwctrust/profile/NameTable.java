@@ -0,0 +1,102 @@
+package org.popcraft.lwctrust.profile;
+
+import org.popcraft.lwctrust.storage.Files2;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Table of the names of players who joined the server, kept in memory and saved to a file so that names of known
+ * players never have to be looked up again.
+ */
+public class NameTable {
+
+    private static final int MAGIC = 0x4c57544e;
+
+    private final File file;
+    private final Map<UUID, String> names = new ConcurrentHashMap<>();
+    private final Map<String, UUID> uniqueIds = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    public NameTable(File file) {
+        this.file = file;
+    }
+
+    public synchronized void load() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("Invalid name table " + file);
+            }
+            int count = input.readInt();
+            for (int i = 0; i < count; ++i) {
+                UUID uniqueId = new UUID(input.readLong(), input.readLong());
+                String name = input.readUTF();
+                // Names recorded since startup are newer than the ones in the file
+                if (names.putIfAbsent(uniqueId, name) == null) {
+                    uniqueIds.putIfAbsent(name.toLowerCase(Locale.ROOT), uniqueId);
+                }
+            }
+        }
+    }
+
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        List<Map.Entry<UUID, String>> entries = new ArrayList<>(names.entrySet());
+        Path target = file.toPath();
+        Path temporary = target.resolveSibling(file.getName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temporary)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(entries.size());
+            for (Map.Entry<UUID, String> entry : entries) {
+                output.writeLong(entry.getKey().getMostSignificantBits());
+                output.writeLong(entry.getKey().getLeastSignificantBits());
+                output.writeUTF(entry.getValue());
+            }
+        } catch (IOException e) {
+            dirty = true;
+            throw e;
+        }
+        Files2.replaceAtomically(temporary, target);
+    }
+
+    /**
+     * Record a player's current name, replacing their old name and anyone who previously used this name.
+     */
+    public synchronized void put(Profile profile) {
+        String previous = names.put(profile.getUniqueId(), profile.getName());
+        if (profile.getName().equals(previous)) {
+            return;
+        }
+        if (previous != null) {
+            uniqueIds.remove(previous.toLowerCase(Locale.ROOT), profile.getUniqueId());
+        }
+        UUID previousOwner = uniqueIds.put(profile.getName().toLowerCase(Locale.ROOT), profile.getUniqueId());
+        if (previousOwner != null && !previousOwner.equals(profile.getUniqueId())) {
+            names.remove(previousOwner, profile.getName());
+        }
+        dirty = true;
+    }
+
+    public String getName(UUID uniqueId) {
+        return names.get(uniqueId);
+    }
+
+    public UUID getUniqueId(String name) {
+        return uniqueIds.get(name.toLowerCase(Locale.ROOT));
+    }
+
+}
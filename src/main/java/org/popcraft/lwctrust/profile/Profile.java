@@ -0,0 +1,49 @@
+package org.popcraft.lwctrust.profile;
+
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * A player's unique id together with their last known name.
+ */
+public final class Profile {
+
+    private final UUID uniqueId;
+    private final String name;
+
+    public Profile(UUID uniqueId, String name) {
+        this.uniqueId = Objects.requireNonNull(uniqueId);
+        this.name = Objects.requireNonNull(name);
+    }
+
+    public UUID getUniqueId() {
+        return uniqueId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Profile)) {
+            return false;
+        }
+        Profile profile = (Profile) o;
+        return uniqueId.equals(profile.uniqueId) && name.equals(profile.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * uniqueId.hashCode() + name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + uniqueId + ")";
+    }
+
+}
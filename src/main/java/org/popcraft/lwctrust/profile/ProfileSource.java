@@ -0,0 +1,56 @@
+package org.popcraft.lwctrust.profile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Source of player profiles used when a name or unique id is not cached. Lookups may block, so they are only
+ * called from the I/O executor.
+ */
+public interface ProfileSource {
+
+    /**
+     * Find a player who has played on the server by name, or null if there is no such player.
+     */
+    Profile findByName(String name) throws IOException;
+
+    /**
+     * Find a player by unique id, or null if their name is not known.
+     */
+    Profile findByUniqueId(UUID uniqueId) throws IOException;
+
+    /**
+     * Find several players by name at once, keyed by the name which was asked for. Sources which support bulk
+     * lookups should override this.
+     */
+    default Map<String, Profile> findAllByName(Collection<String> names) throws IOException {
+        Map<String, Profile> profiles = new HashMap<>();
+        for (String name : names) {
+            Profile profile = findByName(name);
+            if (profile != null) {
+                profiles.put(name, profile);
+            }
+        }
+        return profiles;
+    }
+
+    /**
+     * Find several players by unique id at once. Sources which support bulk lookups should override this.
+     */
+    default List<Profile> findAllByUniqueId(Collection<UUID> uniqueIds) throws IOException {
+        List<Profile> profiles = new ArrayList<>();
+        for (UUID uniqueId : uniqueIds) {
+            Profile profile = findByUniqueId(uniqueId);
+            if (profile != null) {
+                profiles.add(profile);
+            }
+        }
+        return profiles;
+    }
+
+}
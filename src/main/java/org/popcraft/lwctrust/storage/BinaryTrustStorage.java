@@ -0,0 +1,104 @@
+package org.popcraft.lwctrust.storage;
+
+import org.popcraft.lwctrust.TrustSet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Storage which keeps one compact binary file per owner in the trusts directory. Each file is a small header
+ * followed by the trusted players as pairs of longs.
+ */
+public class BinaryTrustStorage implements TrustStorage {
+
+    private static final int MAGIC = 0x4c575442;
+    private static final String EXTENSION = ".bin";
+
+    private File directory;
+
+    public BinaryTrustStorage(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public TrustSet load(UUID owner) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(getTrustFile(owner).toPath());
+        } catch (NoSuchFileException e) {
+            return TrustSet.empty();
+        }
+        return decode(bytes);
+    }
+
+    @Override
+    public void save(UUID owner, TrustSet trusts) throws IOException {
+        File trustFile = getTrustFile(owner);
+        if (trusts.isEmpty()) {
+            Files.deleteIfExists(trustFile.toPath());
+            return;
+        }
+        Path target = trustFile.toPath();
+        Path temporary = target.resolveSibling(trustFile.getName() + ".tmp");
+        Files.write(temporary, encode(trusts));
+        Files2.replaceAtomically(temporary, target);
+    }
+
+    /**
+     * Trust files are replaced by a rename and removed by deleting them, which both update the directory.
+     */
+    @Override
+    public long getGeneration() {
+        return directory.lastModified();
+    }
+
+    @Override
+    public void forEachOwner(Consumer<UUID> consumer) throws IOException {
+        if (!directory.isDirectory()) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath(), "*" + EXTENSION)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    consumer.accept(UUID.fromString(name.substring(0, name.length() - EXTENSION.length())));
+                } catch (IllegalArgumentException ignored) {
+                    // Not a trust file
+                }
+            }
+        }
+    }
+
+    static byte[] encode(TrustSet trusts) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + trusts.size() * 16);
+        buffer.putInt(MAGIC).putInt(trusts.size());
+        trusts.forEach(uuid -> buffer.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()));
+        return buffer.array();
+    }
+
+    static TrustSet decode(byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < 8 || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a binary trust file");
+        }
+        int count = buffer.getInt();
+        if (count < 0 || buffer.remaining() < count * 16L) {
+            throw new IOException("Truncated binary trust file");
+        }
+        List<UUID> trusted = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            trusted.add(new UUID(buffer.getLong(), buffer.getLong()));
+        }
+        return TrustSet.of(trusted);
+    }
+
+    private File getTrustFile(UUID owner) {
+        return new File(directory, owner.toString() + EXTENSION);
+    }
+
+}
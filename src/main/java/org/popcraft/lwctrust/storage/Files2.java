@@ -0,0 +1,29 @@
+package org.popcraft.lwctrust.storage;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * File helpers shared by everything the plugin writes to disk.
+ */
+public final class Files2 {
+
+    private Files2() {
+    }
+
+    /**
+     * Move a fully written temporary file over its target, so readers only ever see the old file or the new one.
+     * File systems without atomic moves fall back to a plain replace.
+     */
+    public static void replaceAtomically(Path temporary, Path target) throws IOException {
+        try {
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+}
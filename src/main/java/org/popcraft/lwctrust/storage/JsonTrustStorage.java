@@ -0,0 +1,88 @@
+package org.popcraft.lwctrust.storage;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.popcraft.lwctrust.Trust;
+import org.popcraft.lwctrust.TrustSet;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Storage which keeps one JSON file per owner in the trusts directory.
+ */
+public class JsonTrustStorage implements TrustStorage {
+
+    private File directory;
+    private Gson gson;
+
+    public JsonTrustStorage(File directory) {
+        this.directory = directory;
+        this.gson = new Gson();
+    }
+
+    @Override
+    public TrustSet load(UUID owner) throws IOException {
+        File trustFile = getTrustFile(owner);
+        try (Reader reader = new InputStreamReader(new FileInputStream(trustFile), StandardCharsets.UTF_8)) {
+            Trust trust = gson.fromJson(reader, Trust.class);
+            return trust == null ? TrustSet.empty() : TrustSet.of(trust.getTrusted());
+        } catch (FileNotFoundException e) {
+            return TrustSet.empty();
+        } catch (JsonParseException e) {
+            throw new IOException("Unable to parse file " + trustFile, e);
+        }
+    }
+
+    @Override
+    public void save(UUID owner, TrustSet trusts) throws IOException {
+        File trustFile = getTrustFile(owner);
+        if (trusts.isEmpty()) {
+            Files.deleteIfExists(trustFile.toPath());
+            return;
+        }
+        // Write to a temporary file first so that a crash never leaves a partially written file behind
+        Path target = trustFile.toPath();
+        Path temporary = target.resolveSibling(trustFile.getName() + ".tmp");
+        String trust = gson.toJson(new Trust(owner, trusts.toList()));
+        Files.write(temporary, trust.getBytes(StandardCharsets.UTF_8));
+        Files2.replaceAtomically(temporary, target);
+    }
+
+    /**
+     * Trust files are replaced by a rename and removed by deleting them, which both update the directory.
+     */
+    @Override
+    public long getGeneration() {
+        return directory.lastModified();
+    }
+
+    @Override
+    public void forEachOwner(Consumer<UUID> consumer) throws IOException {
+        if (!directory.isDirectory()) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath(), "*.json")) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    consumer.accept(UUID.fromString(name.substring(0, name.length() - ".json".length())));
+                } catch (IllegalArgumentException ignored) {
+                    // Not a trust file
+                }
+            }
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    private File getTrustFile(UUID owner) {
+        return new File(directory, owner.toString() + ".json");
+    }
+
+}
@@ -0,0 +1,379 @@
+package org.popcraft.lwctrust.storage;
+
+import org.popcraft.lwctrust.TrustSet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Log-structured storage which appends trust changes to segment files in a single directory. An in-memory index
+ * of record offsets for each owner is rebuilt from the segments on startup, and old segments are compacted into
+ * a single snapshot per owner in the background.
+ */
+public class LogTrustStorage implements TrustStorage {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final byte DELTA = 0;
+    private static final byte SNAPSHOT = 1;
+    private static final long MAX_SEGMENT_SIZE = 16L << 20;
+    private static final int MAX_CHAIN_LENGTH = 16;
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+    private static final int SEGMENT_SHIFT = 40;
+
+    private final File directory;
+    private final Executor executor;
+    private final Logger logger;
+    private final ConcurrentHashMap<Integer, FileChannel> segments = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<UUID, long[]> index = new ConcurrentHashMap<>();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final Object writeLock = new Object();
+    private int nextSegment;
+    private int activeSegment;
+    private FileChannel active;
+    private long activeSize;
+    private long records;
+
+    public LogTrustStorage(File directory, Executor executor, Logger logger) throws IOException {
+        this.directory = directory;
+        this.executor = executor;
+        this.logger = logger;
+        Files.createDirectories(directory.toPath());
+        List<Integer> ids = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath(),
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    ids.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException ignored) {
+                    // Not a segment file
+                }
+            }
+        }
+        Collections.sort(ids);
+        for (int id : ids) {
+            FileChannel channel = openSegment(id);
+            segments.put(id, channel);
+            scan(id, channel);
+        }
+        this.nextSegment = ids.isEmpty() ? 0 : ids.get(ids.size() - 1) + 1;
+        if (!ids.isEmpty() && segments.get(ids.get(ids.size() - 1)).size() < MAX_SEGMENT_SIZE) {
+            this.activeSegment = ids.get(ids.size() - 1);
+            this.active = segments.get(activeSegment);
+            this.activeSize = active.size();
+        } else {
+            roll();
+        }
+    }
+
+    @Override
+    public TrustSet load(UUID owner) throws IOException {
+        try {
+            return TrustSet.of(replay(index.get(owner), offset -> true));
+        } catch (ClosedChannelException e) {
+            // A segment was compacted away while it was being read, so the index now points somewhere else
+            return TrustSet.of(replay(index.get(owner), offset -> true));
+        }
+    }
+
+    @Override
+    public void save(UUID owner, TrustSet trusts) throws IOException {
+        synchronized (writeLock) {
+            long[] offsets = index.get(owner);
+            Set<UUID> current = replay(offsets, offset -> true);
+            List<UUID> added = new ArrayList<>();
+            trusts.forEach(uuid -> {
+                if (!current.contains(uuid)) {
+                    added.add(uuid);
+                }
+            });
+            List<UUID> removed = new ArrayList<>();
+            current.forEach(uuid -> {
+                if (!trusts.contains(uuid)) {
+                    removed.add(uuid);
+                }
+            });
+            if (added.isEmpty() && removed.isEmpty()) {
+                return;
+            }
+            if (trusts.isEmpty()) {
+                // An empty snapshot marks the owner as deleted
+                append(encode(SNAPSHOT, owner, Collections.emptyList(), Collections.emptyList()));
+                index.remove(owner);
+            } else if (offsets == null || offsets.length >= MAX_CHAIN_LENGTH) {
+                long offset = append(encode(SNAPSHOT, owner, trusts.toList(), Collections.emptyList()));
+                index.put(owner, new long[]{offset});
+            } else {
+                long offset = append(encode(DELTA, owner, added, removed));
+                long[] extended = Arrays.copyOf(offsets, offsets.length + 1);
+                extended[offsets.length] = offset;
+                index.put(owner, extended);
+            }
+            if (++records > Math.max(MIN_COMPACTION_RECORDS, index.size() * 2L)
+                    && compacting.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this::compact);
+                } catch (RejectedExecutionException e) {
+                    compacting.set(false);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void forEachOwner(Consumer<UUID> consumer) {
+        index.keySet().forEach(consumer);
+    }
+
+    /**
+     * Records are appended to the segments, and compaction adds and removes segments in the directory.
+     */
+    @Override
+    public long getGeneration() {
+        long generation = directory.lastModified();
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX)
+                && name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                generation = Math.max(generation, file.lastModified());
+            }
+        }
+        return generation;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            active.force(true);
+            for (FileChannel channel : segments.values()) {
+                channel.close();
+            }
+            segments.clear();
+        }
+    }
+
+    private void compact() {
+        try {
+            List<Integer> sealed;
+            int compactedId;
+            synchronized (writeLock) {
+                sealed = new ArrayList<>(segments.keySet());
+                compactedId = nextSegment++;
+                roll();
+            }
+            // Records in segments older than the compacted segment are rewritten as one snapshot per owner
+            long sealedLimit = (long) compactedId << SEGMENT_SHIFT;
+            LongPredicate isSealed = offset -> offset < sealedLimit;
+            FileChannel compacted = openSegment(compactedId);
+            Map<UUID, Long> snapshots = new HashMap<>();
+            long position = 0;
+            for (Map.Entry<UUID, long[]> entry : index.entrySet()) {
+                Set<UUID> state = replay(entry.getValue(), isSealed);
+                if (state.isEmpty()) {
+                    continue;
+                }
+                ByteBuffer record = encode(SNAPSHOT, entry.getKey(), new ArrayList<>(state), Collections.emptyList());
+                snapshots.put(entry.getKey(), sealedLimit | position);
+                position += write(compacted, record, position);
+            }
+            compacted.force(true);
+            segments.put(compactedId, compacted);
+            synchronized (writeLock) {
+                long live = 0;
+                for (Map.Entry<UUID, long[]> entry : index.entrySet()) {
+                    Long snapshot = snapshots.get(entry.getKey());
+                    long[] offsets = Arrays.stream(entry.getValue()).filter(offset -> !isSealed.test(offset))
+                            .toArray();
+                    if (snapshot != null) {
+                        long[] prefixed = new long[offsets.length + 1];
+                        prefixed[0] = snapshot;
+                        System.arraycopy(offsets, 0, prefixed, 1, offsets.length);
+                        offsets = prefixed;
+                    }
+                    if (offsets.length == 0) {
+                        index.remove(entry.getKey());
+                    } else {
+                        entry.setValue(offsets);
+                        live += offsets.length;
+                    }
+                }
+                records = live;
+            }
+            for (int id : sealed) {
+                FileChannel channel = segments.remove(id);
+                if (channel != null) {
+                    channel.close();
+                }
+                Files.deleteIfExists(getSegmentFile(id).toPath());
+            }
+        } catch (IOException e) {
+            logger.warning("Unable to compact trust log: " + e);
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    private void scan(int id, FileChannel channel) throws IOException {
+        long position = 0;
+        long size = channel.size();
+        channel.position(0);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        while (position + 4 <= size) {
+            int length = input.readInt();
+            if (length < 25 || position + 8 + length > size) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            input.readFully(payload);
+            if (input.readInt() != checksum(payload)) {
+                break;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            byte type = buffer.get();
+            UUID owner = new UUID(buffer.getLong(), buffer.getLong());
+            long offset = ((long) id << SEGMENT_SHIFT) | position;
+            if (type == SNAPSHOT) {
+                if (buffer.getInt() == 0) {
+                    index.remove(owner);
+                } else {
+                    index.put(owner, new long[]{offset});
+                }
+            } else {
+                long[] offsets = index.get(owner);
+                if (offsets == null) {
+                    index.put(owner, new long[]{offset});
+                } else {
+                    long[] extended = Arrays.copyOf(offsets, offsets.length + 1);
+                    extended[offsets.length] = offset;
+                    index.put(owner, extended);
+                }
+            }
+            ++records;
+            position += 8 + length;
+        }
+        if (position < size) {
+            // Drop a partially written record left behind by a crash
+            logger.warning("Truncating damaged trust log " + getSegmentFile(id) + " at " + position);
+            channel.truncate(position);
+        }
+    }
+
+    private Set<UUID> replay(long[] offsets, LongPredicate filter) throws IOException {
+        Set<UUID> trusts = new LinkedHashSet<>();
+        if (offsets == null) {
+            return trusts;
+        }
+        for (long offset : offsets) {
+            if (!filter.test(offset)) {
+                continue;
+            }
+            FileChannel channel = segments.get((int) (offset >>> SEGMENT_SHIFT));
+            if (channel == null) {
+                throw new ClosedChannelException();
+            }
+            long position = offset & ((1L << SEGMENT_SHIFT) - 1);
+            ByteBuffer header = ByteBuffer.allocate(4);
+            readFully(channel, header, position);
+            ByteBuffer payload = ByteBuffer.allocate(header.getInt(0));
+            readFully(channel, payload, position + 4);
+            payload.flip();
+            byte type = payload.get();
+            payload.position(payload.position() + 16);
+            if (type == SNAPSHOT) {
+                trusts.clear();
+            }
+            int added = payload.getInt();
+            for (int i = 0; i < added; ++i) {
+                trusts.add(new UUID(payload.getLong(), payload.getLong()));
+            }
+            int removed = payload.getInt();
+            for (int i = 0; i < removed; ++i) {
+                trusts.remove(new UUID(payload.getLong(), payload.getLong()));
+            }
+        }
+        return trusts;
+    }
+
+    private long append(ByteBuffer record) throws IOException {
+        if (activeSize >= MAX_SEGMENT_SIZE) {
+            roll();
+        }
+        long offset = ((long) activeSegment << SEGMENT_SHIFT) | activeSize;
+        activeSize += write(active, record, activeSize);
+        return offset;
+    }
+
+    private void roll() throws IOException {
+        this.activeSegment = nextSegment++;
+        this.active = openSegment(activeSegment);
+        this.activeSize = active.size();
+        segments.put(activeSegment, active);
+    }
+
+    private static ByteBuffer encode(byte type, UUID owner, List<UUID> added, List<UUID> removed) {
+        int length = 1 + 16 + 4 + added.size() * 16 + 4 + removed.size() * 16;
+        ByteBuffer record = ByteBuffer.allocate(4 + length + 4);
+        record.putInt(length);
+        record.put(type);
+        record.putLong(owner.getMostSignificantBits()).putLong(owner.getLeastSignificantBits());
+        record.putInt(added.size());
+        added.forEach(uuid -> record.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()));
+        record.putInt(removed.size());
+        removed.forEach(uuid -> record.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()));
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, length);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    private static int write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private FileChannel openSegment(int id) throws IOException {
+        return FileChannel.open(getSegmentFile(id).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    private File getSegmentFile(int id) {
+        return new File(directory, String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+}
@@ -0,0 +1,392 @@
+package org.popcraft.lwctrust.storage;
+
+import org.popcraft.lwctrust.TrustSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Read-optimized binary index of all trusts, kept in a memory-mapped file. Owners are stored in a sorted table of
+ * fixed-width entries which point to sorted arrays of trusted players, so a lookup is a pair of binary searches
+ * with no parsing or allocation. Owners changed since the file was written are answered from an overlay until
+ * the next rebuild merges them in, streaming the file and the changes together in order. The header records the generation of the storage the file was built from, so a
+ * file is rebuilt when storage was changed without it, for example by another server or an offline import.
+ */
+public class MappedTrustIndex {
+
+    public enum Result {
+        TRUSTED, NOT_TRUSTED, UNKNOWN
+    }
+
+    private static final int MAGIC = 0x4c575449;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 24;
+    private static final int GENERATION_OFFSET = 16;
+    private static final int ENTRY_SIZE = 24;
+    private static final int TRUSTEE_SIZE = 16;
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    private final File file;
+    private final ConcurrentHashMap<UUID, TrustSet> overlay = new ConcurrentHashMap<>();
+    private volatile MappedByteBuffer buffer;
+    // Held by lookups while they read the buffer, so that it is never unmapped underneath them
+    private final StampedLock mapLock = new StampedLock();
+
+    public MappedTrustIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Map the existing index file, returning false if there is no usable file. A file is only trusted if it was
+     * closed cleanly, since changes made after the last rebuild are lost otherwise, and if storage is still at the
+     * generation the file was closed with.
+     */
+    public boolean open(long generation) throws IOException {
+        File marker = getCleanMarker();
+        if (!file.exists() || !marker.exists()) {
+            return false;
+        }
+        Files.delete(marker.toPath());
+        return map(generation);
+    }
+
+    /**
+     * Merge any pending changes into the file and mark it as up to date with storage at a generation. Storage has
+     * to have every change by then, so it should be closed first.
+     */
+    public synchronized void close(long generation) throws IOException {
+        rebuild();
+        if (buffer == null) {
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(8).putLong(0, generation);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.write(header, GENERATION_OFFSET);
+            channel.force(true);
+        }
+        Files.write(getCleanMarker().toPath(), new byte[0]);
+    }
+
+    // Map the file, provided it was written from storage at a generation, or from any if the generation is null
+    private boolean map(Long generation) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.limit() < HEADER_SIZE || mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION
+                    || generation != null && mapped.getLong(GENERATION_OFFSET) != generation) {
+                return false;
+            }
+            this.buffer = mapped;
+            return true;
+        }
+    }
+
+    public boolean isReady() {
+        return buffer != null;
+    }
+
+    public Result contains(UUID owner, UUID requester) {
+        TrustSet changed = overlay.get(owner);
+        if (changed != null) {
+            return changed.contains(requester) ? Result.TRUSTED : Result.NOT_TRUSTED;
+        }
+        long stamp = mapLock.readLock();
+        try {
+            MappedByteBuffer buffer = this.buffer;
+            if (buffer == null) {
+                return Result.UNKNOWN;
+            }
+            int owners = buffer.getInt(8);
+            int entry = search(buffer, HEADER_SIZE, ENTRY_SIZE, 0, owners - 1,
+                    owner.getMostSignificantBits(), owner.getLeastSignificantBits());
+            if (entry < 0) {
+                return Result.NOT_TRUSTED;
+            }
+            int position = HEADER_SIZE + entry * ENTRY_SIZE;
+            int start = buffer.getInt(position + 16);
+            int count = buffer.getInt(position + 20);
+            int trustees = HEADER_SIZE + owners * ENTRY_SIZE;
+            int found = search(buffer, trustees, TRUSTEE_SIZE, start, start + count - 1,
+                    requester.getMostSignificantBits(), requester.getLeastSignificantBits());
+            return found < 0 ? Result.NOT_TRUSTED : Result.TRUSTED;
+        } finally {
+            mapLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Record a change which is not yet part of the mapped file.
+     */
+    public void update(UUID owner, TrustSet trusts) {
+        overlay.put(owner, trusts);
+    }
+
+    public boolean isDirty() {
+        return !overlay.isEmpty();
+    }
+
+    /**
+     * Write a new index from every owner in storage.
+     */
+    public synchronized void build(TrustStorage storage) throws IOException {
+        // Taken first, so that anything written while storage is read leaves the file out of date
+        long generation = storage.getGeneration();
+        Map<UUID, TrustSet> changes = new HashMap<>(overlay);
+        SortedMap<UUID, long[]> entries = new TreeMap<>(MappedTrustIndex::compare);
+        storage.forEach((owner, trusts) -> entries.put(owner, encode(trusts)));
+        changes.forEach((owner, trusts) -> entries.put(owner, encode(trusts)));
+        write(null, entries, generation);
+        // Only drop changes which were written, an owner saved in the meantime still needs its newer trusts
+        changes.forEach((owner, trusts) -> overlay.remove(owner, trusts));
+    }
+
+    /**
+     * Write a new index by merging pending changes into the current file, without reading storage.
+     */
+    public synchronized void rebuild() throws IOException {
+        MappedByteBuffer buffer = this.buffer;
+        if (buffer == null || overlay.isEmpty()) {
+            return;
+        }
+        Map<UUID, TrustSet> changes = new HashMap<>(overlay);
+        SortedMap<UUID, long[]> entries = new TreeMap<>(MappedTrustIndex::compare);
+        changes.forEach((owner, trusts) -> entries.put(owner, encode(trusts)));
+        // Only this server's own changes are merged in, so the file is still as current as the one it replaces
+        write(buffer, entries, buffer.getLong(GENERATION_OFFSET));
+        // Only drop changes which were written, an owner saved in the meantime still needs its newer trusts
+        changes.forEach((owner, trusts) -> overlay.remove(owner, trusts));
+    }
+
+    // Write the owners of a mapped file, if any, merged with sorted changes into a new file and map it
+    private void write(ByteBuffer base, SortedMap<UUID, long[]> changes, long generation) throws IOException {
+        // Counted first, since the owner table comes before the trusted players it points to
+        int owners = 0;
+        long total = 0;
+        for (Merge merge = new Merge(base, changes); merge.next(); ) {
+            ++owners;
+            total += merge.count;
+        }
+        long size = HEADER_SIZE + (long) owners * ENTRY_SIZE + total * TRUSTEE_SIZE;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Trust index of " + size + " bytes is too large to map");
+        }
+        Path target = file.toPath();
+        Path temporary = target.resolveSibling(file.getName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Output table = new Output(channel, HEADER_SIZE);
+            Output trustees = new Output(channel, HEADER_SIZE + (long) owners * ENTRY_SIZE);
+            int start = 0;
+            for (Merge merge = new Merge(base, changes); merge.next(); ) {
+                table.putLong(merge.msb).putLong(merge.lsb).putInt(start).putInt(merge.count);
+                merge.copyTrustees(trustees);
+                start += merge.count;
+            }
+            table.flush();
+            trustees.flush();
+            new Output(channel, 0).putInt(MAGIC).putInt(VERSION).putInt(owners).putInt((int) total)
+                    .putLong(generation).flush();
+            channel.force(true);
+        }
+        // A mapped file can not be replaced on every platform, so the old mapping is released first. Lookups in
+        // the meantime are answered from the cache instead
+        unmap();
+        Files2.replaceAtomically(temporary, target);
+        map(null);
+    }
+
+    private void unmap() {
+        MappedByteBuffer mapped;
+        long stamp = mapLock.writeLock();
+        try {
+            mapped = buffer;
+            buffer = null;
+        } finally {
+            mapLock.unlockWrite(stamp);
+        }
+        if (mapped != null) {
+            release(mapped);
+        }
+    }
+
+    private File getCleanMarker() {
+        return new File(file.getPath() + ".clean");
+    }
+
+    // Trusted players are stored sorted in the same order as owners, so that they can be binary searched
+    private static long[] encode(TrustSet trusts) {
+        List<UUID> sorted = trusts.toList();
+        sorted.sort(MappedTrustIndex::compare);
+        long[] encoded = new long[sorted.size() * 2];
+        for (int i = 0; i < sorted.size(); ++i) {
+            encoded[i * 2] = sorted.get(i).getMostSignificantBits();
+            encoded[i * 2 + 1] = sorted.get(i).getLeastSignificantBits();
+        }
+        return encoded;
+    }
+
+    private static int search(ByteBuffer buffer, int base, int width, int low, int high, long msb, long lsb) {
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int position = base + middle * width;
+            int comparison = Long.compare(buffer.getLong(position), msb);
+            if (comparison == 0) {
+                comparison = Long.compare(buffer.getLong(position + 8), lsb);
+            }
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    // Release a mapping now rather than once it is garbage collected, through its cleaner on Java 8 and through
+    // Unsafe on later versions
+    private static void release(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            try {
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch (NoSuchMethodException e) {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Left to the garbage collector, which only matters where a mapped file can not be replaced
+        }
+    }
+
+    private static int compare(long msb, long lsb, UUID uuid) {
+        int comparison = Long.compare(msb, uuid.getMostSignificantBits());
+        return comparison != 0 ? comparison : Long.compare(lsb, uuid.getLeastSignificantBits());
+    }
+
+    private static int compare(UUID first, UUID second) {
+        int comparison = Long.compare(first.getMostSignificantBits(), second.getMostSignificantBits());
+        return comparison != 0 ? comparison
+                : Long.compare(first.getLeastSignificantBits(), second.getLeastSignificantBits());
+    }
+
+    // Walks the owners of a mapped file and sorted changes together in order, skipping owners left without trusts
+    private static final class Merge {
+
+        private final ByteBuffer base;
+        private final int owners;
+        private final int trustees;
+        private final Iterator<Map.Entry<UUID, long[]>> changes;
+        private Map.Entry<UUID, long[]> change;
+        private int index;
+        private long msb, lsb;
+        private long[] changed;
+        private int start, count;
+
+        private Merge(ByteBuffer base, SortedMap<UUID, long[]> changes) {
+            this.base = base;
+            this.owners = base == null ? 0 : base.getInt(8);
+            this.trustees = HEADER_SIZE + owners * ENTRY_SIZE;
+            this.changes = changes.entrySet().iterator();
+            this.change = this.changes.hasNext() ? this.changes.next() : null;
+        }
+
+        private boolean next() {
+            while (index < owners || change != null) {
+                int position = HEADER_SIZE + index * ENTRY_SIZE;
+                int comparison = change == null ? -1 : index >= owners ? 1
+                        : compare(base.getLong(position), base.getLong(position + 8), change.getKey());
+                if (comparison < 0) {
+                    msb = base.getLong(position);
+                    lsb = base.getLong(position + 8);
+                    changed = null;
+                    start = base.getInt(position + 16);
+                    count = base.getInt(position + 20);
+                    ++index;
+                } else {
+                    // A changed owner replaces the same owner in the file
+                    if (comparison == 0) {
+                        ++index;
+                    }
+                    msb = change.getKey().getMostSignificantBits();
+                    lsb = change.getKey().getLeastSignificantBits();
+                    changed = change.getValue();
+                    count = changed.length / 2;
+                    change = changes.hasNext() ? changes.next() : null;
+                }
+                if (count > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void copyTrustees(Output output) throws IOException {
+            if (changed != null) {
+                for (long value : changed) {
+                    output.putLong(value);
+                }
+                return;
+            }
+            for (int i = 0; i < count * 2; ++i) {
+                output.putLong(base.getLong(trustees + start * TRUSTEE_SIZE + i * 8));
+            }
+        }
+
+    }
+
+    // Buffered writes to one region of a file, so that the owner table and trusted players are written side by side
+    private static final class Output {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+        private long position;
+
+        private Output(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        private Output putInt(int value) throws IOException {
+            if (buffer.remaining() < 4) {
+                flush();
+            }
+            buffer.putInt(value);
+            return this;
+        }
+
+        private Output putLong(long value) throws IOException {
+            if (buffer.remaining() < 8) {
+                flush();
+            }
+            buffer.putLong(value);
+            return this;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+        }
+
+    }
+
+}
@@ -0,0 +1,237 @@
+package org.popcraft.lwctrust.storage;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.popcraft.lwctrust.Cache;
+import org.popcraft.lwctrust.TrustSet;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Storage for several servers writing the same trusts, kept as an observed-remove set (OR-Set). Every server only
+ * ever writes its own replica file per owner, holding the players it added, each with a unique tag, and the tags
+ * it removed. Loading merges every replica, and a player is trusted while any of their tags is not removed, so
+ * concurrent changes from different servers never overwrite each other and always merge to the same result.
+ * Plain trust files in the JSON trusts directory are read as well, so existing trusts keep working unchanged.
+ * <p>
+ * Removals need the tags seen when the trusts were loaded. If those were evicted, a save which removes players
+ * fails with a {@link StaleTrustsException} rather than guessing, and the caller has to load the trusts again.
+ */
+public class OrSetTrustStorage implements TrustStorage {
+
+    private static final String LEGACY_TAG = "legacy:";
+    private static final String EXTENSION = ".json";
+    private static final int LOCK_STRIPES = 64;
+
+    private final JsonTrustStorage legacy;
+    private final File directory;
+    private final String node;
+    private final Gson gson = new Gson();
+    // The tags this server last saw for each owner, so a save only removes what this server actually observed
+    private final Cache<UUID, Map<UUID, Set<String>>> observed;
+    // Saves of the same owner on this server still have to take turns writing its replica file
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    public OrSetTrustStorage(JsonTrustStorage legacy, File directory, String node, int cacheSize) {
+        this.legacy = legacy;
+        this.directory = directory;
+        this.node = node;
+        this.observed = new Cache<>(cacheSize);
+        for (int i = 0; i < LOCK_STRIPES; ++i) {
+            locks[i] = new Object();
+        }
+    }
+
+    public void setCacheSize(int cacheSize) {
+        observed.setMaximumSize(cacheSize);
+    }
+
+    /**
+     * Get the unique id of the server using a plugin folder, creating it the first time. It is kept in the folder
+     * so that the server keeps writing the same replicas across restarts.
+     */
+    public static String getNodeId(File dataFolder) throws IOException {
+        File file = new File(dataFolder, "node.id");
+        if (file.exists()) {
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+        }
+        String nodeId = UUID.randomUUID().toString();
+        Files.write(file.toPath(), nodeId.getBytes(StandardCharsets.UTF_8));
+        return nodeId;
+    }
+
+    @Override
+    public TrustSet load(UUID owner) throws IOException {
+        Merged merged = read(owner);
+        observed.put(owner, merged.live);
+        return TrustSet.of(merged.live.keySet());
+    }
+
+    @Override
+    public void save(UUID owner, TrustSet trusts) throws IOException {
+        synchronized (locks[(owner.hashCode() & 0x7fffffff) % LOCK_STRIPES]) {
+            Merged merged = read(owner);
+            Map<UUID, Set<String>> base = observed.get(owner);
+            if (base == null) {
+                // Without the tags this server saw, a missing player could be a removal here or an add elsewhere
+                for (UUID trusted : merged.live.keySet()) {
+                    if (!trusts.contains(trusted)) {
+                        throw new StaleTrustsException(owner);
+                    }
+                }
+                base = merged.live;
+            }
+            Replica replica = merged.replicas.getOrDefault(node, new Replica());
+            // Players added here get a new tag, unless they are trusted already. Tags are random rather than counted,
+            // so they are never reused once a replica file is deleted
+            for (UUID trusted : trusts) {
+                if (!base.containsKey(trusted) && !merged.live.containsKey(trusted)) {
+                    replica.adds.computeIfAbsent(trusted.toString(), key -> new ArrayList<>())
+                            .add(UUID.randomUUID().toString());
+                }
+            }
+            // Players removed here lose only the tags observed here, so a concurrent add elsewhere survives
+            base.forEach((trusted, tags) -> {
+                if (!trusts.contains(trusted)) {
+                    replica.removed.addAll(tags);
+                }
+            });
+            merged.replicas.put(node, replica);
+            compact(replica, merged);
+            write(owner, replica);
+            observed.put(owner, merge(merged.replicas, merged.legacy).live);
+        }
+    }
+
+    /**
+     * Replica files are replaced by a rename, which updates their owner's directory.
+     */
+    @Override
+    public long getGeneration() throws IOException {
+        long generation = Math.max(legacy.getGeneration(), directory.lastModified());
+        File[] ownerDirectories = directory.listFiles(File::isDirectory);
+        if (ownerDirectories != null) {
+            for (File ownerDirectory : ownerDirectories) {
+                generation = Math.max(generation, ownerDirectory.lastModified());
+            }
+        }
+        return generation;
+    }
+
+    @Override
+    public void forEachOwner(Consumer<UUID> consumer) throws IOException {
+        Set<UUID> owners = new HashSet<>();
+        legacy.forEachOwner(owners::add);
+        File[] ownerDirectories = directory.listFiles(File::isDirectory);
+        if (ownerDirectories != null) {
+            for (File ownerDirectory : ownerDirectories) {
+                try {
+                    owners.add(UUID.fromString(ownerDirectory.getName()));
+                } catch (IllegalArgumentException ignored) {
+                    // Not an owner directory
+                }
+            }
+        }
+        owners.forEach(consumer);
+    }
+
+    // Drop added tags which were removed, and removed tags which no replica still adds
+    private void compact(Replica replica, Merged merged) {
+        replica.adds.values().forEach(tags -> tags.removeIf(merged.removed::contains));
+        replica.adds.values().removeIf(List::isEmpty);
+        Set<String> added = new HashSet<>();
+        merged.replicas.values().forEach(other -> other.adds.values().forEach(added::addAll));
+        merged.legacy.forEach(trusted -> added.add(LEGACY_TAG + trusted));
+        replica.removed.retainAll(added);
+    }
+
+    private Merged read(UUID owner) throws IOException {
+        Map<String, Replica> replicas = new HashMap<>();
+        File[] files = getOwnerDirectory(owner).listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                    Replica replica = gson.fromJson(reader, Replica.class);
+                    if (replica != null) {
+                        replicas.put(name.substring(0, name.length() - EXTENSION.length()), replica);
+                    }
+                } catch (FileNotFoundException e) {
+                    // Removed since the directory was listed
+                } catch (JsonParseException e) {
+                    throw new IOException("Unable to parse file " + file, e);
+                }
+            }
+        }
+        return merge(replicas, legacy.load(owner));
+    }
+
+    private static Merged merge(Map<String, Replica> replicas, TrustSet legacyTrusts) {
+        Set<String> removed = new HashSet<>();
+        replicas.values().forEach(replica -> removed.addAll(replica.removed));
+        Map<UUID, Set<String>> live = new LinkedHashMap<>();
+        for (UUID trusted : legacyTrusts) {
+            String tag = LEGACY_TAG + trusted;
+            if (!removed.contains(tag)) {
+                live.computeIfAbsent(trusted, key -> new HashSet<>()).add(tag);
+            }
+        }
+        replicas.values().forEach(replica -> replica.adds.forEach((trusted, tags) -> tags.forEach(tag -> {
+            if (!removed.contains(tag)) {
+                live.computeIfAbsent(UUID.fromString(trusted), key -> new HashSet<>()).add(tag);
+            }
+        })));
+        return new Merged(replicas, legacyTrusts, removed, live);
+    }
+
+    private void write(UUID owner, Replica replica) throws IOException {
+        File ownerDirectory = getOwnerDirectory(owner);
+        Path target = new File(ownerDirectory, node + EXTENSION).toPath();
+        if (replica.adds.isEmpty() && replica.removed.isEmpty()) {
+            Files.deleteIfExists(target);
+            // Only succeeds once no other server has a replica left either
+            //noinspection ResultOfMethodCallIgnored
+            ownerDirectory.delete();
+            return;
+        }
+        Files.createDirectories(ownerDirectory.toPath());
+        Path temporary = target.resolveSibling(node + EXTENSION + ".tmp");
+        Files.write(temporary, gson.toJson(replica).getBytes(StandardCharsets.UTF_8));
+        Files2.replaceAtomically(temporary, target);
+    }
+
+    private File getOwnerDirectory(UUID owner) {
+        return new File(directory, owner.toString());
+    }
+
+    // One server's changes to an owner's trusts, as stored in its replica file
+    private static final class Replica {
+
+        private Map<String, List<String>> adds = new HashMap<>();
+        private Set<String> removed = new HashSet<>();
+
+    }
+
+    // Every replica of an owner merged together, with the tags of each trusted player which are not removed
+    private static final class Merged {
+
+        private final Map<String, Replica> replicas;
+        private final TrustSet legacy;
+        private final Set<String> removed;
+        private final Map<UUID, Set<String>> live;
+
+        private Merged(Map<String, Replica> replicas, TrustSet legacy, Set<String> removed,
+                       Map<UUID, Set<String>> live) {
+            this.replicas = replicas;
+            this.legacy = legacy;
+            this.removed = removed;
+            this.live = live;
+        }
+
+    }
+
+}
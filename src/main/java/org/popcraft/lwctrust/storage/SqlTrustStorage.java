@@ -0,0 +1,190 @@
+package org.popcraft.lwctrust.storage;
+
+import org.popcraft.lwctrust.TrustSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Storage backed by an embedded SQLite database file. The driver is bundled with the server, so no external
+ * database or extra dependency is needed.
+ */
+public class SqlTrustStorage implements TrustStorage {
+
+    private static final int BATCH_SIZE = 500;
+
+    private final Connection connection;
+    private volatile long generation;
+
+    public SqlTrustStorage(File file) throws IOException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+            this.connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("PRAGMA journal_mode=WAL");
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS trusts (owner CHAR(36) NOT NULL, "
+                        + "trusted CHAR(36) NOT NULL, PRIMARY KEY (owner, trusted))");
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS generation (id INTEGER PRIMARY KEY, "
+                        + "value INTEGER NOT NULL)");
+                statement.executeUpdate("INSERT OR IGNORE INTO generation (id, value) VALUES (0, 0)");
+            }
+            this.generation = readGeneration();
+        } catch (ClassNotFoundException | SQLException e) {
+            throw new IOException("Unable to open trust database " + file, e);
+        }
+    }
+
+    @Override
+    public synchronized TrustSet load(UUID owner) throws IOException {
+        return loadAll(Collections.singletonList(owner)).get(owner);
+    }
+
+    @Override
+    public synchronized void save(UUID owner, TrustSet trusts) throws IOException {
+        saveAll(Collections.singletonMap(owner, trusts));
+    }
+
+    @Override
+    public void forEachOwner(Consumer<UUID> consumer) throws IOException {
+        List<UUID> owners = readOwners("");
+        while (!owners.isEmpty()) {
+            owners.forEach(consumer);
+            owners = readOwners(owners.get(owners.size() - 1).toString());
+        }
+    }
+
+    @Override
+    public synchronized Map<UUID, TrustSet> loadAll(Collection<UUID> owners) throws IOException {
+        Map<UUID, List<UUID>> trusted = new HashMap<>();
+        owners.forEach(owner -> trusted.put(owner, new ArrayList<>()));
+        List<UUID> remaining = new ArrayList<>(owners);
+        try {
+            for (int from = 0; from < remaining.size(); from += BATCH_SIZE) {
+                List<UUID> batch = remaining.subList(from, Math.min(remaining.size(), from + BATCH_SIZE));
+                String placeholders = String.join(",", Collections.nCopies(batch.size(), "?"));
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "SELECT owner, trusted FROM trusts WHERE owner IN (" + placeholders + ")")) {
+                    for (int i = 0; i < batch.size(); ++i) {
+                        statement.setString(i + 1, batch.get(i).toString());
+                    }
+                    try (ResultSet results = statement.executeQuery()) {
+                        while (results.next()) {
+                            trusted.get(UUID.fromString(results.getString(1)))
+                                    .add(UUID.fromString(results.getString(2)));
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+        Map<UUID, TrustSet> trusts = new HashMap<>();
+        trusted.forEach((owner, list) -> trusts.put(owner, TrustSet.of(list)));
+        return trusts;
+    }
+
+    @Override
+    public synchronized void saveAll(Map<UUID, TrustSet> trusts) throws IOException {
+        try {
+            connection.setAutoCommit(false);
+            try (PreparedStatement delete = connection.prepareStatement("DELETE FROM trusts WHERE owner = ?");
+                 PreparedStatement insert = connection.prepareStatement(
+                         "INSERT INTO trusts (owner, trusted) VALUES (?, ?)")) {
+                for (Map.Entry<UUID, TrustSet> entry : trusts.entrySet()) {
+                    String owner = entry.getKey().toString();
+                    delete.setString(1, owner);
+                    delete.addBatch();
+                    for (UUID uuid : entry.getValue()) {
+                        insert.setString(1, owner);
+                        insert.setString(2, uuid.toString());
+                        insert.addBatch();
+                    }
+                }
+                delete.executeBatch();
+                insert.executeBatch();
+                try (Statement statement = connection.createStatement()) {
+                    statement.executeUpdate("UPDATE generation SET value = value + 1 WHERE id = 0");
+                }
+                connection.commit();
+                generation = readGeneration();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Read owners a batch at a time, in order, so that the database is only locked while a batch is read and never
+     * while the consumer runs.
+     */
+    @Override
+    public void forEach(BiConsumer<UUID, TrustSet> consumer) throws IOException {
+        List<UUID> owners = readOwners("");
+        while (!owners.isEmpty()) {
+            Map<UUID, TrustSet> trusts = loadAll(owners);
+            for (UUID owner : owners) {
+                TrustSet trusted = trusts.get(owner);
+                // Saved as empty since the batch of owners was read
+                if (!trusted.isEmpty()) {
+                    consumer.accept(owner, trusted);
+                }
+            }
+            owners = readOwners(owners.get(owners.size() - 1).toString());
+        }
+    }
+
+    // Read the next batch of owners after an owner, using the primary key to skip the ones already read
+    private synchronized List<UUID> readOwners(String after) throws IOException {
+        List<UUID> owners = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT DISTINCT owner FROM trusts WHERE owner > ? ORDER BY owner LIMIT ?")) {
+            statement.setString(1, after);
+            statement.setInt(2, BATCH_SIZE);
+            try (ResultSet results = statement.executeQuery()) {
+                while (results.next()) {
+                    owners.add(UUID.fromString(results.getString(1)));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+        return owners;
+    }
+
+    /**
+     * Every save increments a counter in the database in the same transaction, so the generation only changes when
+     * trusts do. The file times can not be used, since opening the database and checkpoints change them as well.
+     */
+    @Override
+    public long getGeneration() {
+        return generation;
+    }
+
+    // Read the save counter, which other servers sharing the database may have incremented as well
+    private long readGeneration() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet results = statement.executeQuery("SELECT value FROM generation WHERE id = 0")) {
+            return results.next() ? results.getLong(1) : 0;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            generation = readGeneration();
+            connection.close();
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+}
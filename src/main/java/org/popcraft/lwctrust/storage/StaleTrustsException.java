@@ -0,0 +1,25 @@
+package org.popcraft.lwctrust.storage;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Thrown when trusts can not be saved because storage no longer knows what they were changed from, so saving
+ * them could undo changes made elsewhere. The owner's trusts have to be loaded again and the change discarded.
+ */
+public class StaleTrustsException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final UUID owner;
+
+    public StaleTrustsException(UUID owner) {
+        super("Trusts for " + owner + " were not loaded by this server");
+        this.owner = owner;
+    }
+
+    public UUID getOwner() {
+        return owner;
+    }
+
+}
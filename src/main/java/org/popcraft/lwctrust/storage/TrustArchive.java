@@ -0,0 +1,367 @@
+package org.popcraft.lwctrust.storage;
+
+import org.popcraft.lwctrust.TrustExpiries;
+import org.popcraft.lwctrust.TrustSet;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.LongConsumer;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Single file archive of a whole trust data set, for moving trusts between servers and storage engines. The
+ * archive is a sequence of independently compressed blocks of owners, so blocks are encoded and decoded in
+ * parallel on a fork-join pool while only a bounded number of them are held in memory at once. Deadlines of timed
+ * trusts are kept with their owner, since they are not part of storage.
+ */
+public class TrustArchive {
+
+    private static final int MAGIC = 0x4c575441;
+    private static final int VERSION = 2;
+    // Archives before deadlines were added are still read
+    private static final int VERSION_WITHOUT_DEADLINES = 1;
+    private static final int BLOCK_OWNERS = 1000;
+
+    /**
+     * How imported trusts are combined with the trusts an owner already has.
+     */
+    public enum Mode {
+        /**
+         * Keep existing trusts and add the imported ones.
+         */
+        UNION,
+        /**
+         * Replace the trusts of every imported owner. Owners missing from the archive are left alone.
+         */
+        OVERWRITE
+    }
+
+    /**
+     * Receives imported owners one block at a time, in archive order, with the deadlines of their timed trusts.
+     */
+    public interface Sink {
+
+        void accept(Map<UUID, TrustSet> trusts, Map<UUID, Map<UUID, Long>> deadlines) throws IOException;
+
+    }
+
+    private final ForkJoinPool pool;
+    private final int window;
+
+    public TrustArchive(ForkJoinPool pool) {
+        this.pool = pool;
+        this.window = 2 * pool.getParallelism();
+    }
+
+    /**
+     * Write every owner in storage to an archive with the deadlines of their timed trusts, by owner, reporting the
+     * number of owners written so far after each block. Returns the number of owners written.
+     */
+    public long export(TrustStorage storage, Map<UUID, Map<UUID, Long>> deadlines, File file,
+                       LongConsumer progress) throws IOException {
+        Path target = file.toPath();
+        Path temporary = target.resolveSibling(file.getName() + ".tmp");
+        Deque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+        long[] written = new long[1];
+        IOException[] failure = new IOException[1];
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temporary)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            Map<UUID, TrustSet> block = new LinkedHashMap<>();
+            storage.forEach((owner, trusts) -> {
+                if (failure[0] != null) {
+                    return;
+                }
+                block.put(owner, trusts);
+                if (block.size() < BLOCK_OWNERS) {
+                    return;
+                }
+                Map<UUID, TrustSet> full = new LinkedHashMap<>(block);
+                block.clear();
+                pending.add(pool.submit(() -> encode(full, deadlines)));
+                // Wait for the oldest block once enough are in flight, which bounds memory use
+                try {
+                    while (pending.size() >= window) {
+                        written[0] += writeBlock(output, pending.poll());
+                        progress.accept(written[0]);
+                    }
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            if (!block.isEmpty()) {
+                pending.add(pool.submit(() -> encode(block, deadlines)));
+            }
+            while (!pending.isEmpty()) {
+                written[0] += writeBlock(output, pending.poll());
+                progress.accept(written[0]);
+            }
+            output.writeInt(0);
+        } catch (IOException e) {
+            pending.forEach(task -> task.cancel(false));
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files2.replaceAtomically(temporary, target);
+        return written[0];
+    }
+
+    /**
+     * Read every owner in an archive into a sink, reporting the number of owners read so far after each block.
+     * Returns the number of owners read.
+     */
+    public long read(File file, Sink sink, LongConsumer progress) throws IOException {
+        Deque<ForkJoinTask<Block>> pending = new ArrayDeque<>();
+        long read = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("Not a trust archive " + file);
+            }
+            int version = input.readInt();
+            if (version != VERSION && version != VERSION_WITHOUT_DEADLINES) {
+                throw new IOException("Unsupported trust archive version in " + file);
+            }
+            boolean withDeadlines = version != VERSION_WITHOUT_DEADLINES;
+            int owners;
+            while ((owners = input.readInt()) > 0) {
+                int length = input.readInt();
+                if (length < 0) {
+                    throw new IOException("Corrupt trust archive " + file);
+                }
+                byte[] compressed = new byte[length];
+                input.readFully(compressed);
+                int blockOwners = owners;
+                pending.add(pool.submit(() -> decode(compressed, blockOwners, withDeadlines)));
+                while (pending.size() >= window) {
+                    read += readBlock(sink, pending.poll());
+                    progress.accept(read);
+                }
+            }
+            while (!pending.isEmpty()) {
+                read += readBlock(sink, pending.poll());
+                progress.accept(read);
+            }
+        } catch (IOException e) {
+            pending.forEach(task -> task.cancel(false));
+            throw e;
+        }
+        return read;
+    }
+
+    /**
+     * Get a sink which merges imported trusts and their deadlines straight into storage, for use while the plugin
+     * is not running. Overwritten owners get the archived deadlines only, while a union only adds deadlines for
+     * trusts the owner did not have yet.
+     */
+    public static Sink storageSink(TrustStorage storage, TrustExpiries expiries, Mode mode) {
+        return (trusts, deadlines) -> {
+            // Loaded even when overwriting, so storage which merges changes, like the OR-Set engine, knows what
+            // the imported trusts replace
+            Map<UUID, TrustSet> existing = storage.loadAll(trusts.keySet());
+            Map<UUID, TrustSet> merged = new HashMap<>();
+            existing.forEach((owner, trusted) -> merged.put(owner, mode == Mode.OVERWRITE
+                    ? trusts.get(owner) : trusted.with(trusts.get(owner).toList())));
+            storage.saveAll(merged);
+            if (mode == Mode.OVERWRITE) {
+                expiries.clearOwners(trusts.keySet());
+            }
+            deadlines.forEach((owner, timed) -> timed.forEach((trusted, deadline) -> {
+                if (mode == Mode.OVERWRITE || !existing.get(owner).contains(trusted)) {
+                    expiries.expireAt(owner, Collections.singletonList(trusted), deadline);
+                }
+            }));
+        };
+    }
+
+    private static long writeBlock(DataOutputStream output, ForkJoinTask<byte[]> task) throws IOException {
+        byte[] block = join(task);
+        output.write(block);
+        // The block starts with its owner count
+        return (block[0] & 0xff) << 24 | (block[1] & 0xff) << 16 | (block[2] & 0xff) << 8 | block[3] & 0xff;
+    }
+
+    private static long readBlock(Sink sink, ForkJoinTask<Block> task) throws IOException {
+        Block block = join(task);
+        sink.accept(block.trusts, block.deadlines);
+        return block.trusts.size();
+    }
+
+    // Encode a block as its owner count, its compressed length and the compressed owners, each followed by the
+    // deadlines of its timed trusts
+    private static byte[] encode(Map<UUID, TrustSet> trusts, Map<UUID, Map<UUID, Long>> deadlines)
+            throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(compressed)))) {
+            for (Map.Entry<UUID, TrustSet> entry : trusts.entrySet()) {
+                writeUuid(output, entry.getKey());
+                output.writeInt(entry.getValue().size());
+                for (UUID trusted : entry.getValue()) {
+                    writeUuid(output, trusted);
+                }
+                Map<UUID, Long> timed = deadlines.getOrDefault(entry.getKey(), Collections.emptyMap());
+                output.writeInt(timed.size());
+                for (Map.Entry<UUID, Long> deadline : timed.entrySet()) {
+                    writeUuid(output, deadline.getKey());
+                    output.writeLong(deadline.getValue());
+                }
+            }
+        }
+        ByteArrayOutputStream block = new ByteArrayOutputStream(compressed.size() + 8);
+        DataOutputStream output = new DataOutputStream(block);
+        output.writeInt(trusts.size());
+        output.writeInt(compressed.size());
+        compressed.writeTo(output);
+        return block.toByteArray();
+    }
+
+    private static Block decode(byte[] compressed, int owners, boolean withDeadlines) throws IOException {
+        Block block = new Block();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new ByteArrayInputStream(compressed))))) {
+            for (int i = 0; i < owners; ++i) {
+                UUID owner = readUuid(input);
+                int count = input.readInt();
+                if (count < 0) {
+                    throw new IOException("Corrupt trust archive block");
+                }
+                List<UUID> trusted = new ArrayList<>(Math.min(count, 1024));
+                for (int j = 0; j < count; ++j) {
+                    trusted.add(readUuid(input));
+                }
+                block.trusts.put(owner, TrustSet.of(trusted));
+                int timed = withDeadlines ? input.readInt() : 0;
+                if (timed < 0) {
+                    throw new IOException("Corrupt trust archive block");
+                }
+                for (int j = 0; j < timed; ++j) {
+                    block.deadlines.computeIfAbsent(owner, key -> new HashMap<>())
+                            .put(readUuid(input), input.readLong());
+                }
+            }
+        }
+        return block;
+    }
+
+    private static void writeUuid(DataOutputStream output, UUID uuid) throws IOException {
+        output.writeLong(uuid.getMostSignificantBits());
+        output.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(DataInputStream input) throws IOException {
+        return new UUID(input.readLong(), input.readLong());
+    }
+
+    // Wait for a task, unwrapping the I/O failure it may have thrown
+    private static <T> T join(ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.join();
+        } catch (RuntimeException e) {
+            Throwable cause = e instanceof UncheckedIOException ? e.getCause() : e;
+            while (cause.getCause() != null && !(cause instanceof IOException)) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw e;
+        }
+    }
+
+    // The owners of one block, as read from an archive
+    private static final class Block {
+
+        private final Map<UUID, TrustSet> trusts = new LinkedHashMap<>();
+        private final Map<UUID, Map<UUID, Long>> deadlines = new HashMap<>();
+
+    }
+
+    /**
+     * Export or import trusts while the server is stopped, given the plugin folder and the configured storage
+     * engine. The JSON and OR-Set engines also need Gson on the class path, and the SQLite engine a SQLite JDBC
+     * driver. The OR-Set engine is expected in its default directory.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4 || !"export".equals(args[0]) && !"import".equals(args[0])) {
+            System.err.println("Usage: TrustArchive <export|import> <archive> <plugin folder> "
+                    + "<json|binary|log|sqlite|orset> [union|overwrite]");
+            System.exit(1);
+            return;
+        }
+        Mode mode = args.length > 4 ? Mode.valueOf(args[4].toUpperCase(Locale.ROOT)) : Mode.UNION;
+        long start = System.nanoTime();
+        long owners = runOffline("export".equals(args[0]), new File(args[1]), new File(args[2]),
+                args[3].toLowerCase(Locale.ROOT), mode, TrustArchive::printProgress);
+        System.out.printf("%nDone, %d owners in %.1f s%n", owners, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Export or import the trusts of a plugin folder while its server is stopped, as the command line does,
+     * returning the number of owners.
+     */
+    static long runOffline(boolean export, File archive, File dataFolder, String engine, Mode mode,
+                           LongConsumer progress) throws IOException {
+        TrustStorage storage = openStorage(engine, dataFolder);
+        TrustArchive trustArchive = new TrustArchive(ForkJoinPool.commonPool());
+        TrustExpiries expiries = new TrustExpiries(new File(dataFolder, "expiries.dat"));
+        expiries.load();
+        try {
+            if (export) {
+                return trustArchive.export(storage, expiries.getDeadlines(), archive, progress);
+            }
+            long owners = trustArchive.read(archive, storageSink(storage, expiries, mode), progress);
+            expiries.save();
+            invalidateDerived(dataFolder);
+            return owners;
+        } finally {
+            storage.close();
+        }
+    }
+
+    private static TrustStorage openStorage(String engine, File dataFolder) throws IOException {
+        File trustDirectory = new File(dataFolder, "trusts");
+        if (!"sqlite".equals(engine) && !"log".equals(engine) && !trustDirectory.isDirectory()
+                && !trustDirectory.mkdirs()) {
+            throw new IOException("Unable to create directory " + trustDirectory);
+        }
+        switch (engine) {
+            case "json":
+                return new JsonTrustStorage(trustDirectory);
+            case "binary":
+                return new BinaryTrustStorage(trustDirectory);
+            case "log":
+                return new LogTrustStorage(new File(dataFolder, "trusts-log"), ForkJoinPool.commonPool(),
+                        Logger.getLogger("TrustArchive"));
+            case "sqlite":
+                return new SqlTrustStorage(new File(dataFolder, "trusts.db"));
+            case "orset":
+                return new OrSetTrustStorage(new JsonTrustStorage(trustDirectory),
+                        new File(dataFolder, "trusts-orset"), OrSetTrustStorage.getNodeId(dataFolder), BLOCK_OWNERS);
+            default:
+                throw new IllegalArgumentException("Unknown storage engine " + engine);
+        }
+    }
+
+    // Files the plugin derives from storage no longer match it after an import. The indexes are rebuilt once their
+    // clean markers are gone, and the hot set is only a hint
+    private static void invalidateDerived(File dataFolder) throws IOException {
+        Files.deleteIfExists(new File(dataFolder, "trusts.idx.clean").toPath());
+        Files.deleteIfExists(new File(dataFolder, "reverse.idx.clean").toPath());
+        Files.deleteIfExists(new File(dataFolder, "hot.dat").toPath());
+    }
+
+    private static void printProgress(long owners) {
+        System.out.print("\r" + owners + " owners");
+    }
+
+}
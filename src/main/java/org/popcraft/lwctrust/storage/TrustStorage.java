@@ -0,0 +1,70 @@
+package org.popcraft.lwctrust.storage;
+
+import org.popcraft.lwctrust.TrustSet;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Persistent storage for trusts. Implementations should override the bulk operations when they can do better
+ * than one round-trip per owner.
+ */
+public interface TrustStorage {
+
+    TrustSet load(UUID owner) throws IOException;
+
+    /**
+     * Save an owner's trusts, removing them from storage if the set is empty.
+     */
+    void save(UUID owner, TrustSet trusts) throws IOException;
+
+    /**
+     * List every owner that has stored trusts.
+     */
+    void forEachOwner(Consumer<UUID> consumer) throws IOException;
+
+    /**
+     * Load trusts for several owners at once. Owners without trusts are mapped to an empty set.
+     */
+    default Map<UUID, TrustSet> loadAll(Collection<UUID> owners) throws IOException {
+        Map<UUID, TrustSet> trusts = new HashMap<>();
+        for (UUID owner : owners) {
+            trusts.put(owner, load(owner));
+        }
+        return trusts;
+    }
+
+    default void saveAll(Map<UUID, TrustSet> trusts) throws IOException {
+        for (Map.Entry<UUID, TrustSet> entry : trusts.entrySet()) {
+            save(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Stream every owner and their trusts, without holding the whole data set in memory.
+     */
+    default void forEach(BiConsumer<UUID, TrustSet> consumer) throws IOException {
+        List<UUID> owners = new ArrayList<>();
+        forEachOwner(owners::add);
+        for (UUID owner : owners) {
+            TrustSet trusts = load(owner);
+            if (!trusts.isEmpty()) {
+                consumer.accept(owner, trusts);
+            }
+        }
+    }
+
+    /**
+     * Get a value which changes whenever storage is written, so that files derived from storage can tell whether
+     * they are still current. It must still work once storage is closed. Returns 0 if storage can not tell.
+     */
+    default long getGeneration() throws IOException {
+        return 0;
+    }
+
+    default void close() throws IOException {
+    }
+
+}
@@ -0,0 +1,144 @@
+package org.popcraft.lwctrust.sync;
+
+import org.popcraft.lwctrust.storage.Files2;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Bus which passes batches through a directory every server can reach, such as a shared mount or the same
+ * directory for servers on one machine. Each batch is written to its own file, which other servers find by
+ * polling, and files are removed again once they are older than the retention time.
+ */
+public class DirectoryBus implements InvalidationBus {
+
+    private static final String EXTENSION = ".delta";
+
+    private final Path directory;
+    private final Logger logger;
+    private final long pollInterval;
+    private final long retention;
+    private final String node = UUID.randomUUID().toString();
+    private final AtomicLong sequence = new AtomicLong();
+    // Only used by the polling thread
+    private final Map<String, Long> seen = new HashMap<>();
+    private volatile Thread thread;
+
+    public DirectoryBus(Path directory, Logger logger, long pollInterval, long retention) {
+        this.directory = directory;
+        this.logger = logger;
+        this.pollInterval = pollInterval;
+        this.retention = retention;
+    }
+
+    @Override
+    public void start(Consumer<List<TrustDelta>> listener) throws IOException {
+        Files.createDirectories(directory);
+        // Batches from before startup are already in storage
+        long now = System.currentTimeMillis();
+        for (String name : list()) {
+            seen.put(name, now);
+        }
+        Thread thread = new Thread(() -> poll(listener), "LWCTrust Sync");
+        thread.setDaemon(true);
+        this.thread = thread;
+        thread.start();
+    }
+
+    @Override
+    public void publish(List<TrustDelta> deltas) throws IOException {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        // Names start with the time, so sorting them orders batches from every server
+        String name = String.format("%016x-%s-%08x%s", System.currentTimeMillis(), node,
+                sequence.getAndIncrement(), EXTENSION);
+        Path target = directory.resolve(name);
+        Path temporary = directory.resolve(name + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temporary)))) {
+            TrustDelta.write(output, deltas);
+        }
+        Files2.replaceAtomically(temporary, target);
+    }
+
+    @Override
+    public void close() {
+        Thread thread = this.thread;
+        this.thread = null;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void poll(Consumer<List<TrustDelta>> listener) {
+        while (thread == Thread.currentThread()) {
+            try {
+                Thread.sleep(pollInterval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                List<TrustDelta> deltas = new ArrayList<>();
+                long now = System.currentTimeMillis();
+                for (String name : list()) {
+                    if (seen.putIfAbsent(name, now) != null) {
+                        continue;
+                    }
+                    if (name.contains(node)) {
+                        continue;
+                    }
+                    try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                            Files.newInputStream(directory.resolve(name))))) {
+                        deltas.addAll(TrustDelta.read(input));
+                    } catch (NoSuchFileException e) {
+                        // Removed by another server
+                    } catch (IOException e) {
+                        logger.warning("Unable to read trust changes from " + name + ": " + e.getMessage());
+                    }
+                }
+                if (!deltas.isEmpty()) {
+                    listener.accept(deltas);
+                }
+                expire(now);
+            } catch (IOException | RuntimeException e) {
+                logger.warning("Unable to poll for trust changes: " + e.getMessage());
+            }
+        }
+    }
+
+    // Remove files older than the retention time, and forget them once no server can still be writing them
+    private void expire(long now) throws IOException {
+        for (String name : list()) {
+            if (now - timeOf(name) > retention) {
+                Files.deleteIfExists(directory.resolve(name));
+            }
+        }
+        // Compared in two steps, since twice a long retention overflows
+        seen.values().removeIf(time -> now - time - retention > retention);
+    }
+
+    private List<String> list() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path path : stream) {
+                names.add(path.getFileName().toString());
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private static long timeOf(String name) {
+        try {
+            return Long.parseLong(name.substring(0, 16), 16);
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+}
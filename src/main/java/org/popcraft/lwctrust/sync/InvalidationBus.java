@@ -0,0 +1,25 @@
+package org.popcraft.lwctrust.sync;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Channel between servers sharing one trust storage, over which each server announces the trusts it changed.
+ * Implementations only have to deliver batches to the other servers, in the order each server published them.
+ */
+public interface InvalidationBus {
+
+    /**
+     * Start delivering batches published by other servers to a listener.
+     */
+    void start(Consumer<List<TrustDelta>> listener) throws IOException;
+
+    /**
+     * Send a batch of changes to every other server.
+     */
+    void publish(List<TrustDelta> deltas) throws IOException;
+
+    void close() throws IOException;
+
+}
@@ -0,0 +1,90 @@
+package org.popcraft.lwctrust.sync;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Players added to and removed from one owner's trusts.
+ */
+public final class TrustDelta {
+
+    private final UUID owner;
+    private final List<UUID> added;
+    private final List<UUID> removed;
+
+    public TrustDelta(UUID owner, List<UUID> added, List<UUID> removed) {
+        this.owner = owner;
+        this.added = Collections.unmodifiableList(added);
+        this.removed = Collections.unmodifiableList(removed);
+    }
+
+    public UUID getOwner() {
+        return owner;
+    }
+
+    public List<UUID> getAdded() {
+        return added;
+    }
+
+    public List<UUID> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Write a batch of deltas in the binary form shared by every bus.
+     */
+    public static void write(DataOutputStream output, List<TrustDelta> deltas) throws IOException {
+        output.writeInt(deltas.size());
+        for (TrustDelta delta : deltas) {
+            writeUuid(output, delta.owner);
+            writeUuids(output, delta.added);
+            writeUuids(output, delta.removed);
+        }
+    }
+
+    public static List<TrustDelta> read(DataInputStream input) throws IOException {
+        int count = input.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupt trust delta batch");
+        }
+        List<TrustDelta> deltas = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; ++i) {
+            deltas.add(new TrustDelta(readUuid(input), readUuids(input), readUuids(input)));
+        }
+        return deltas;
+    }
+
+    private static void writeUuids(DataOutputStream output, List<UUID> uuids) throws IOException {
+        output.writeInt(uuids.size());
+        for (UUID uuid : uuids) {
+            writeUuid(output, uuid);
+        }
+    }
+
+    private static List<UUID> readUuids(DataInputStream input) throws IOException {
+        int count = input.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupt trust delta batch");
+        }
+        List<UUID> uuids = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; ++i) {
+            uuids.add(readUuid(input));
+        }
+        return uuids;
+    }
+
+    private static void writeUuid(DataOutputStream output, UUID uuid) throws IOException {
+        output.writeLong(uuid.getMostSignificantBits());
+        output.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(DataInputStream input) throws IOException {
+        return new UUID(input.readLong(), input.readLong());
+    }
+
+}
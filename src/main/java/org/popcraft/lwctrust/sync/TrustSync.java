@@ -0,0 +1,93 @@
+package org.popcraft.lwctrust.sync;
+
+import org.popcraft.lwctrust.TrustCache;
+import org.popcraft.lwctrust.TrustSet;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the trust caches of servers sharing one trust storage in step. Local changes are collected per owner and
+ * published as one batch per interval, and changes from other servers are applied to the local cache as deltas.
+ */
+public class TrustSync {
+
+    private final Logger logger;
+    private final InvalidationBus bus;
+    private final Map<UUID, Change> pending = new LinkedHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    public TrustSync(Logger logger, InvalidationBus bus) {
+        this.logger = logger;
+        this.bus = bus;
+    }
+
+    public void start(TrustCache trustCache, long interval) throws IOException {
+        bus.start(deltas -> deltas.forEach(delta ->
+                trustCache.applyRemote(delta.getOwner(), delta.getAdded(), delta.getRemoved())));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LWCTrust Sync Publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Record a local change to an owner's trusts, merging it with any change not yet published.
+     */
+    public void changed(UUID owner, TrustSet previous, TrustSet current) {
+        synchronized (pending) {
+            Change change = pending.computeIfAbsent(owner, key -> new Change());
+            previous.forEach(trustee -> {
+                if (!current.contains(trustee)) {
+                    change.added.remove(trustee);
+                    change.removed.add(trustee);
+                }
+            });
+            current.forEach(trustee -> {
+                if (!previous.contains(trustee)) {
+                    change.removed.remove(trustee);
+                    change.added.add(trustee);
+                }
+            });
+        }
+    }
+
+    /**
+     * Publish every change recorded since the last batch.
+     */
+    public void flush() {
+        List<TrustDelta> deltas = new ArrayList<>();
+        synchronized (pending) {
+            pending.forEach((owner, change) -> deltas.add(new TrustDelta(owner, new ArrayList<>(change.added),
+                    new ArrayList<>(change.removed))));
+            pending.clear();
+        }
+        try {
+            bus.publish(deltas);
+        } catch (IOException e) {
+            logger.warning("Unable to publish " + deltas.size() + " trust changes: " + e.getMessage());
+        }
+    }
+
+    public void close() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        flush();
+        bus.close();
+    }
+
+    private static final class Change {
+
+        private final Set<UUID> added = new LinkedHashSet<>();
+        private final Set<UUID> removed = new LinkedHashSet<>();
+
+    }
+
+}
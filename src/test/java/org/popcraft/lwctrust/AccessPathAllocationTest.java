@@ -0,0 +1,105 @@
+package org.popcraft.lwctrust;
+
+import com.griefcraft.model.Permission;
+import com.griefcraft.model.Protection;
+import com.griefcraft.scripting.event.LWCAccessEvent;
+import org.bukkit.entity.Player;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class AccessPathAllocationTest {
+
+    private static final int ITERATIONS = 100000;
+    private static final int WARMUP_ROUNDS = 5;
+
+    private com.sun.management.ThreadMXBean threads;
+    private TrustModule trustModule;
+    private UUID owner, requester;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        owner = UUID.randomUUID();
+        requester = UUID.randomUUID();
+        TrustCache trustCache = new TrustCache(Logger.getAnonymousLogger(), 64, new MemoryTrustStorage(),
+                Runnable::run);
+        trustCache.update(owner, trusts -> trusts.with(Collections.singletonList(requester)));
+        GroupManager groupManager = new GroupManager(new File("unused"), trustCache, 64);
+        trustModule = new TrustModule(Logger.getAnonymousLogger(), trustCache, groupManager, Runnable::run, 1, 64);
+    }
+
+    @Test
+    public void trustedCheckDoesNotAllocate() {
+        LWCAccessEvent event = event(owner.toString(), requester);
+        assertEquals(0, allocated(event));
+        assertEquals(Permission.Access.PLAYER, event.getAccess());
+    }
+
+    @Test
+    public void untrustedCheckDoesNotAllocate() {
+        LWCAccessEvent event = event(owner.toString(), UUID.randomUUID());
+        assertEquals(0, allocated(event));
+        assertEquals(Permission.Access.NONE, event.getAccess());
+    }
+
+    @Test
+    public void legacyOwnerCheckDoesNotAllocate() {
+        // Owners which are not unique ids are remembered as such, so they are not parsed again
+        LWCAccessEvent event = event("Notch", requester);
+        assertEquals(0, allocated(event));
+        assertEquals(Permission.Access.NONE, event.getAccess());
+    }
+
+    // Bytes allocated by the module's entry point in steady state, less what measuring itself allocates
+    private long allocated(LWCAccessEvent event) {
+        // Warm up first, so that the first decision, class loading and compilation are not measured
+        for (int i = 0; i < WARMUP_ROUNDS; ++i) {
+            check(event);
+        }
+        long thread = Thread.currentThread().getId();
+        long baseline = threads.getThreadAllocatedBytes(thread);
+        long before = threads.getThreadAllocatedBytes(thread);
+        check(event);
+        long after = threads.getThreadAllocatedBytes(thread);
+        return after - before - (before - baseline);
+    }
+
+    private void check(LWCAccessEvent event) {
+        for (int i = 0; i < ITERATIONS; ++i) {
+            trustModule.onAccessRequest(event);
+        }
+    }
+
+    private static LWCAccessEvent event(String owner, UUID requester) {
+        Protection protection = new Protection();
+        // LWC hands out the same owner string for a protection, the owner cache relies on that
+        protection.setOwner(owner);
+        return new LWCAccessEvent(player(requester), protection, Permission.Access.NONE);
+    }
+
+    // A player stand-in which only knows its unique id, which is all the access check needs
+    private static Player player(UUID uuid) {
+        return (Player) Proxy.newProxyInstance(AccessPathAllocationTest.class.getClassLoader(),
+                new Class<?>[]{Player.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("getUniqueId")) {
+                        return uuid;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+}
@@ -0,0 +1,88 @@
+package org.popcraft.lwctrust;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.IntConsumer;
+
+import static org.junit.Assert.*;
+
+public class CacheTest {
+
+    private static final int THREADS = 8;
+
+    @Test
+    public void concurrentComputeLosesNoUpdates() throws Exception {
+        Cache<Integer, Integer> cache = new Cache<>(1000);
+        int keys = 16, increments = 10000;
+        run(thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < increments; ++i) {
+                int key = i % keys;
+                cache.compute(key, (k, count) -> count == null ? 1 : count + 1);
+                // Reads and writes of other keys run alongside
+                cache.get(keys + random.nextInt(keys));
+                cache.put(keys + random.nextInt(keys), i);
+            }
+        });
+        int total = 0;
+        for (int key = 0; key < keys; ++key) {
+            total += cache.get(key);
+        }
+        assertEquals(THREADS * increments, total);
+    }
+
+    @Test
+    public void concurrentWritesStayBounded() throws Exception {
+        int max = 100;
+        Cache<Integer, Integer> cache = new Cache<>(max);
+        run(thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 20000; ++i) {
+                int key = random.nextInt(10000);
+                switch (i % 4) {
+                    case 0:
+                        cache.put(key, i);
+                        break;
+                    case 1:
+                        cache.compute(key, (k, value) -> value == null ? 0 : value + 1);
+                        break;
+                    case 2:
+                        cache.get(key, k -> k);
+                        break;
+                    default:
+                        cache.putIfAbsent(key, i);
+                }
+            }
+        });
+        assertTrue("Cache grew to " + cache.size(), cache.size() <= max);
+    }
+
+    @Test
+    public void replaceOnlySwapsExpectedValue() {
+        Cache<String, Integer> cache = new Cache<>(10);
+        cache.put("key", 1);
+        assertFalse(cache.replace("key", 2, 3));
+        assertTrue(cache.replace("key", 1, 3));
+        assertEquals(Integer.valueOf(3), cache.get("key"));
+    }
+
+    private static void run(IntConsumer task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; ++i) {
+                int thread = i;
+                futures.add(executor.submit(() -> task.accept(thread)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
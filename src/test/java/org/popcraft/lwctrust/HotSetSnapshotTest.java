@@ -0,0 +1,71 @@
+package org.popcraft.lwctrust;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class HotSetSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void includedTrustsAreUsedWhileStorageIsUnchanged() throws Exception {
+        MemoryTrustStorage storage = new MemoryTrustStorage();
+        UUID owner = UUID.randomUUID(), trusted = UUID.randomUUID();
+        storage.save(owner, TrustSet.of(Arrays.asList(trusted)));
+        HotSetSnapshot snapshot = save(storage, owner);
+        // Storage that no longer has the trusts but reports the same generation shows where warming read from
+        MemoryTrustStorage unchanged = new MemoryTrustStorage();
+        unchanged.save(UUID.randomUUID(), TrustSet.of(Arrays.asList(trusted)));
+        TrustCache warmed = newCache(unchanged);
+        assertEquals(Integer.valueOf(1), snapshot.warm(warmed, unchanged, Runnable::run, 5000, true).get());
+        assertTrue(warmed.get(owner).contains(trusted));
+    }
+
+    @Test
+    public void includedTrustsAreDroppedWhenStorageChanged() throws Exception {
+        MemoryTrustStorage storage = new MemoryTrustStorage();
+        UUID owner = UUID.randomUUID(), revoked = UUID.randomUUID(), kept = UUID.randomUUID();
+        storage.save(owner, TrustSet.of(Arrays.asList(revoked, kept)));
+        HotSetSnapshot snapshot = save(storage, owner);
+        // Changed while the server was down
+        storage.save(owner, TrustSet.of(Arrays.asList(kept)));
+        TrustCache warmed = newCache(storage);
+        assertEquals(Integer.valueOf(1), snapshot.warm(warmed, storage, Runnable::run, 5000, true).get());
+        assertFalse(warmed.get(owner).contains(revoked));
+        assertTrue(warmed.get(owner).contains(kept));
+    }
+
+    @Test
+    public void includedTrustsAreDroppedWhenNotAllowed() throws Exception {
+        MemoryTrustStorage storage = new MemoryTrustStorage();
+        UUID owner = UUID.randomUUID(), trusted = UUID.randomUUID();
+        storage.save(owner, TrustSet.of(Arrays.asList(trusted)));
+        HotSetSnapshot snapshot = save(storage, owner);
+        MemoryTrustStorage empty = new MemoryTrustStorage();
+        TrustCache warmed = newCache(empty);
+        assertEquals(Integer.valueOf(0), snapshot.warm(warmed, empty, Runnable::run, 5000, false).get());
+        assertNull(warmed.get(owner));
+    }
+
+    private HotSetSnapshot save(MemoryTrustStorage storage, UUID owner) throws Exception {
+        TrustCache trustCache = newCache(storage);
+        trustCache.load(owner);
+        HotSetSnapshot snapshot = new HotSetSnapshot(new File(folder.getRoot(), "hot.dat"));
+        assertEquals(1, snapshot.save(trustCache, true, storage.getGeneration()));
+        return snapshot;
+    }
+
+    private static TrustCache newCache(MemoryTrustStorage storage) {
+        return new TrustCache(Logger.getAnonymousLogger(), 16, storage, Runnable::run);
+    }
+
+}
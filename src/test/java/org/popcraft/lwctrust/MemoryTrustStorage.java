@@ -0,0 +1,44 @@
+package org.popcraft.lwctrust;
+
+import org.popcraft.lwctrust.storage.TrustStorage;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Storage kept entirely in memory, so that tests do not touch the disk.
+ */
+public class MemoryTrustStorage implements TrustStorage {
+
+    private final Map<UUID, TrustSet> trusts = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    @Override
+    public TrustSet load(UUID owner) {
+        return trusts.getOrDefault(owner, TrustSet.empty());
+    }
+
+    @Override
+    public void save(UUID owner, TrustSet trusts) {
+        if (trusts.isEmpty()) {
+            this.trusts.remove(owner);
+        } else {
+            this.trusts.put(owner, trusts);
+        }
+        generation.incrementAndGet();
+    }
+
+    @Override
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    @Override
+    public void forEachOwner(Consumer<UUID> consumer) {
+        trusts.keySet().forEach(consumer);
+    }
+
+}
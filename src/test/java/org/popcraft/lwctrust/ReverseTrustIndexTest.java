@@ -0,0 +1,56 @@
+package org.popcraft.lwctrust;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.popcraft.lwctrust.storage.TrustStorage;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+public class ReverseTrustIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void ownerChangedDuringBuildKeepsUnchangedTrusts() throws IOException {
+        ReverseTrustIndex index = new ReverseTrustIndex(folder.newFile("reverse.idx"));
+        UUID owner = UUID.randomUUID(), kept = UUID.randomUUID(), removed = UUID.randomUUID(),
+                added = UUID.randomUUID();
+        TrustSet stored = TrustSet.of(Arrays.asList(kept, removed));
+        TrustSet current = stored.without(Collections.singletonList(removed)).with(Collections.singletonList(added));
+        TrustStorage storage = new TrustStorage() {
+            @Override
+            public TrustSet load(UUID uuid) {
+                return stored;
+            }
+
+            @Override
+            public void save(UUID uuid, TrustSet trusts) {
+            }
+
+            @Override
+            public void forEachOwner(Consumer<UUID> consumer) {
+                consumer.accept(owner);
+            }
+
+            @Override
+            public void forEach(BiConsumer<UUID, TrustSet> consumer) {
+                // The owner changes after storage was read, but before it reaches the index
+                index.update(owner, stored, current);
+                consumer.accept(owner, stored);
+            }
+        };
+        index.build(storage, uuid -> current);
+        assertTrue(index.isReady());
+        assertEquals(Collections.singleton(owner), index.getOwners(kept));
+        assertEquals(Collections.singleton(owner), index.getOwners(added));
+        assertTrue(index.getOwners(removed).isEmpty());
+    }
+
+}
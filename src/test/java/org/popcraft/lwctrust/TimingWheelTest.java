@@ -0,0 +1,65 @@
+package org.popcraft.lwctrust;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TimingWheelTest {
+
+    @Test
+    public void keysExpireAtTheirDeadlineOnEveryLevel() {
+        TimingWheel<Long> wheel = new TimingWheel<>(1, 0);
+        // Around the edges of each wheel, and past the coarsest one, which comes around more than once
+        List<Long> deadlines = Arrays.asList(1L, 63L, 64L, 65L, 4095L, 4096L, 4097L, 262143L, 262144L, 300000L,
+                16777216L, 20000000L);
+        for (long deadline : deadlines) {
+            wheel.schedule(deadline, deadline);
+        }
+        for (long deadline : deadlines) {
+            assertEquals(Collections.emptyList(), wheel.advance(deadline - 1));
+            assertEquals(Collections.singletonList(deadline), wheel.advance(deadline));
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void keysCascadeTogether() {
+        TimingWheel<Integer> wheel = new TimingWheel<>(1, 0);
+        Set<Integer> keys = new HashSet<>();
+        for (int key = 0; key < 100; ++key) {
+            wheel.schedule(key, 5000 + key % 3);
+            keys.add(key);
+        }
+        assertTrue(wheel.advance(4999).isEmpty());
+        assertEquals(keys, new HashSet<>(wheel.advance(5002)));
+    }
+
+    @Test
+    public void cancelledKeysNeverExpire() {
+        TimingWheel<String> wheel = new TimingWheel<>(1, 0);
+        wheel.schedule("soon", 10);
+        wheel.schedule("later", 5000);
+        wheel.schedule("kept", 6000);
+        assertTrue(wheel.cancel("soon"));
+        assertFalse(wheel.cancel("soon"));
+        // Cancelled after moving down from a coarser wheel
+        assertTrue(wheel.advance(4500).isEmpty());
+        assertTrue(wheel.cancel("later"));
+        assertEquals(Collections.singletonList("kept"), wheel.advance(10000));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void reschedulingReplacesTheDeadline() {
+        TimingWheel<String> wheel = new TimingWheel<>(1000, 0);
+        wheel.schedule("key", 5000000);
+        wheel.schedule("key", 1500);
+        // Rounded up to whole ticks, so never early
+        assertTrue(wheel.advance(1999).isEmpty());
+        assertEquals(Collections.singletonList("key"), wheel.advance(2000));
+        assertTrue(wheel.advance(6000000).isEmpty());
+    }
+
+}
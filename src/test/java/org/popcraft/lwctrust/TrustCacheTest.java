@@ -0,0 +1,65 @@
+package org.popcraft.lwctrust;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class TrustCacheTest {
+
+    @Test
+    public void concurrentUpdatesAreNotLost() throws Exception {
+        TrustCache trustCache = new TrustCache(Logger.getAnonymousLogger(), 16, new MemoryTrustStorage(),
+                Runnable::run);
+        ReverseTrustIndex reverseIndex = new ReverseTrustIndex(new File("unused"));
+        reverseIndex.build(new MemoryTrustStorage(), trustCache::load);
+        trustCache.setReverseIndex(reverseIndex);
+        UUID[] owners = {UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID()};
+        int threads = 8, updates = 500;
+        List<UUID> trusted = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; ++i) {
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < updates; ++j) {
+                    UUID uuid = UUID.randomUUID();
+                    trusted.add(uuid);
+                    List<UUID> added = Collections.singletonList(uuid);
+                    trustCache.update(owners[j % owners.length], trusts -> trusts.with(added));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        int total = 0;
+        for (UUID owner : owners) {
+            total += trustCache.get(owner).size();
+        }
+        assertEquals(threads * updates, total);
+        for (UUID uuid : trusted) {
+            assertEquals(1, reverseIndex.getOwners(uuid).size());
+        }
+    }
+
+    @Test
+    public void savePersistsEvictedTrusts() throws IOException {
+        MemoryTrustStorage storage = new MemoryTrustStorage();
+        TrustCache trustCache = new TrustCache(Logger.getAnonymousLogger(), 1, storage, Runnable::run);
+        UUID owner = UUID.randomUUID(), other = UUID.randomUUID(), trusted = UUID.randomUUID();
+        TrustSet updated = trustCache.update(owner, trusts -> trusts.with(Collections.singletonList(trusted)));
+        trustCache.update(other, trusts -> trusts.with(Collections.singletonList(trusted)));
+        assertNull(trustCache.get(owner));
+        trustCache.save(owner, updated);
+        assertTrue(storage.load(owner).contains(trusted));
+    }
+
+}
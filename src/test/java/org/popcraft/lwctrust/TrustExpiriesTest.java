@@ -0,0 +1,62 @@
+package org.popcraft.lwctrust;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TrustExpiriesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void flushedChangesSurviveWithoutSave() throws Exception {
+        File file = new File(folder.getRoot(), "expiries.dat");
+        UUID owner = UUID.randomUUID(), kept = UUID.randomUUID(), cleared = UUID.randomUUID();
+        TrustExpiries expiries = new TrustExpiries(file);
+        expiries.expireAt(owner, Arrays.asList(kept, cleared), 1000);
+        expiries.save();
+        long saved = file.lastModified(), size = file.length();
+        expiries.expireAt(owner, Collections.singletonList(kept), 2000);
+        expiries.clear(owner, Collections.singletonList(cleared));
+        expiries.flush();
+        // Only the changes were appended, the file itself was not written again
+        assertEquals(saved, file.lastModified());
+        assertEquals(size, file.length());
+        assertTrue(new File(file.getPath() + ".log").length() > 0);
+        TrustExpiries loaded = new TrustExpiries(file);
+        loaded.load();
+        assertEquals(Collections.singletonMap(owner, Collections.singletonMap(kept, 2000L)), loaded.getDeadlines());
+    }
+
+    @Test
+    public void changeCutShortIsIgnored() throws Exception {
+        File file = new File(folder.getRoot(), "expiries.dat");
+        UUID owner = UUID.randomUUID(), trusted = UUID.randomUUID();
+        TrustExpiries expiries = new TrustExpiries(file);
+        expiries.expireAt(owner, Collections.singletonList(trusted), 1000);
+        expiries.flush();
+        // As if the server stopped halfway through appending the next change
+        try (FileOutputStream output = new FileOutputStream(new File(file.getPath() + ".log"), true)) {
+            output.write(new byte[20]);
+        }
+        TrustExpiries loaded = new TrustExpiries(file);
+        loaded.load();
+        UUID later = UUID.randomUUID();
+        loaded.expireAt(owner, Collections.singletonList(later), 3000);
+        loaded.flush();
+        TrustExpiries reloaded = new TrustExpiries(file);
+        reloaded.load();
+        Map<UUID, Long> expected = new HashMap<>();
+        expected.put(trusted, 1000L);
+        expected.put(later, 3000L);
+        assertEquals(Collections.singletonMap(owner, expected), reloaded.getDeadlines());
+    }
+
+}
@@ -0,0 +1,33 @@
+package org.popcraft.lwctrust;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class WriteBehindQueueTest {
+
+    @Test
+    public void flushAllKeepsBackgroundFlushRunning() throws InterruptedException {
+        Map<UUID, TrustSet> written = new ConcurrentHashMap<>();
+        WriteBehindQueue queue = new WriteBehindQueue(Logger.getAnonymousLogger(), written::putAll, 10, 100);
+        UUID first = UUID.randomUUID(), second = UUID.randomUUID();
+        TrustSet trusts = TrustSet.of(Collections.singletonList(UUID.randomUUID()));
+        queue.enqueue(first, trusts);
+        assertEquals(1, queue.flushAll());
+        assertSame(trusts, written.get(first));
+        queue.enqueue(second, trusts);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!written.containsKey(second) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertSame(trusts, written.get(second));
+        assertEquals(0, queue.drain());
+    }
+
+}
@@ -0,0 +1,126 @@
+package org.popcraft.lwctrust.profile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class NameResolverTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Profile alice = new Profile(UUID.randomUUID(), "Alice");
+    private final Profile bob = new Profile(UUID.randomUUID(), "Bob");
+    private FakeProfileSource source;
+    private NameTable table;
+    private NameResolver resolver;
+
+    @Before
+    public void setUp() {
+        source = new FakeProfileSource(alice, bob);
+        table = new NameTable(new File(folder.getRoot(), "names.dat"));
+        resolver = new NameResolver(source, table, Runnable::run, 16);
+    }
+
+    @Test
+    public void lookupsAreCached() throws Exception {
+        assertEquals(Collections.singletonList(alice), resolver.resolveNames(Collections.singletonList("alice")).get());
+        assertEquals(Collections.singletonList(alice), resolver.resolveNames(Collections.singletonList("ALICE")).get());
+        assertEquals(Collections.singletonList(alice),
+                resolver.resolveUniqueIds(Collections.singletonList(alice.getUniqueId())).get());
+        assertEquals(1, source.nameBatches.size());
+        assertTrue(source.uniqueIdBatches.isEmpty());
+    }
+
+    @Test
+    public void playersInTheTableAreNeverLookedUp() throws Exception {
+        resolver.remember(alice);
+        assertEquals(Collections.singletonList(alice), resolver.resolveNames(Collections.singletonList("Alice")).get());
+        assertEquals("Alice", resolver.getCachedName(alice.getUniqueId()));
+        assertTrue(source.nameBatches.isEmpty());
+    }
+
+    @Test
+    public void unknownPlayersAreLeftOutOrNamedByUniqueId() throws Exception {
+        assertTrue(resolver.resolveNames(Collections.singletonList("Nobody")).get().isEmpty());
+        UUID unknown = UUID.randomUUID();
+        List<Profile> profiles = resolver.resolveUniqueIds(Collections.singletonList(unknown)).get();
+        assertEquals(unknown.toString(), profiles.get(0).getName());
+    }
+
+    @Test
+    public void missesAreLookedUpInOneBatchWithoutDuplicates() throws Exception {
+        List<Profile> profiles = resolver.resolveNames(Arrays.asList("Bob", "alice", "BOB", "Alice", "Nobody")).get();
+        assertEquals(Arrays.asList(bob, alice), profiles);
+        assertEquals(Collections.singletonList(Arrays.asList("Bob", "alice", "Nobody")), source.nameBatches);
+        resolver = new NameResolver(source, table, Runnable::run, 16);
+        resolver.resolveUniqueIds(Arrays.asList(alice.getUniqueId(), bob.getUniqueId(), alice.getUniqueId())).get();
+        assertEquals(Collections.singletonList(Arrays.asList(alice.getUniqueId(), bob.getUniqueId())),
+                source.uniqueIdBatches);
+    }
+
+    @Test
+    public void nameTableSurvivesSaveAndLoad() throws Exception {
+        table.put(alice);
+        table.put(bob);
+        // A player who changed their name keeps only the new one
+        table.put(new Profile(bob.getUniqueId(), "Robert"));
+        table.save();
+        NameTable loaded = new NameTable(new File(folder.getRoot(), "names.dat"));
+        loaded.load();
+        assertEquals("Alice", loaded.getName(alice.getUniqueId()));
+        assertEquals(alice.getUniqueId(), loaded.getUniqueId("ALICE"));
+        assertEquals("Robert", loaded.getName(bob.getUniqueId()));
+        assertNull(loaded.getUniqueId("Bob"));
+        NameResolver resolver = new NameResolver(source, loaded, Runnable::run, 16);
+        assertEquals(Collections.singletonList(alice), resolver.resolveNames(Collections.singletonList("alice")).get());
+        assertTrue(source.nameBatches.isEmpty());
+    }
+
+    // Stand-in for the server's player data, recording each batch it is asked for
+    private static final class FakeProfileSource implements ProfileSource {
+
+        private final Map<String, Profile> byName = new HashMap<>();
+        private final Map<UUID, Profile> byUniqueId = new HashMap<>();
+        private final List<List<String>> nameBatches = new ArrayList<>();
+        private final List<List<UUID>> uniqueIdBatches = new ArrayList<>();
+
+        private FakeProfileSource(Profile... profiles) {
+            for (Profile profile : profiles) {
+                byName.put(profile.getName().toLowerCase(Locale.ROOT), profile);
+                byUniqueId.put(profile.getUniqueId(), profile);
+            }
+        }
+
+        @Override
+        public Profile findByName(String name) {
+            return byName.get(name.toLowerCase(Locale.ROOT));
+        }
+
+        @Override
+        public Profile findByUniqueId(UUID uniqueId) {
+            return byUniqueId.get(uniqueId);
+        }
+
+        @Override
+        public Map<String, Profile> findAllByName(Collection<String> names) throws IOException {
+            nameBatches.add(new ArrayList<>(names));
+            return ProfileSource.super.findAllByName(names);
+        }
+
+        @Override
+        public List<Profile> findAllByUniqueId(Collection<UUID> uniqueIds) throws IOException {
+            uniqueIdBatches.add(new ArrayList<>(uniqueIds));
+            return ProfileSource.super.findAllByUniqueId(uniqueIds);
+        }
+
+    }
+
+}
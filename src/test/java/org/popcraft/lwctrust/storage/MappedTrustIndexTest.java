@@ -0,0 +1,154 @@
+package org.popcraft.lwctrust.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.popcraft.lwctrust.TrustSet;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+public class MappedTrustIndexTest {
+
+    private static final int THREADS = 4;
+    private static final int OWNERS_PER_THREAD = 16;
+    private static final int UPDATES = 20000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void updatesDuringRebuildAreKept() throws Exception {
+        MappedTrustIndex index = new MappedTrustIndex(folder.newFile("trusts.idx"));
+        index.build(new EmptyStorage());
+        UUID trusted = UUID.randomUUID();
+        TrustSet trusting = TrustSet.of(Collections.singletonList(trusted));
+        UUID[][] owners = new UUID[THREADS][OWNERS_PER_THREAD];
+        boolean[][] expected = new boolean[THREADS][OWNERS_PER_THREAD];
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread rebuilder = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    index.rebuild();
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        List<Thread> updaters = new ArrayList<>();
+        for (int i = 0; i < THREADS; ++i) {
+            int thread = i;
+            for (int j = 0; j < OWNERS_PER_THREAD; ++j) {
+                owners[thread][j] = UUID.randomUUID();
+            }
+            updaters.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int update = 0; update < UPDATES; ++update) {
+                    int owner = random.nextInt(OWNERS_PER_THREAD);
+                    boolean trusts = random.nextBoolean();
+                    expected[thread][owner] = trusts;
+                    index.update(owners[thread][owner], trusts ? trusting : TrustSet.empty());
+                }
+            }));
+        }
+        rebuilder.start();
+        updaters.forEach(Thread::start);
+        for (Thread updater : updaters) {
+            updater.join();
+        }
+        done.set(true);
+        rebuilder.join();
+        assertNull(failure.get());
+        index.rebuild();
+        assertFalse(index.isDirty());
+        for (int i = 0; i < THREADS; ++i) {
+            for (int j = 0; j < OWNERS_PER_THREAD; ++j) {
+                MappedTrustIndex.Result result = expected[i][j]
+                        ? MappedTrustIndex.Result.TRUSTED : MappedTrustIndex.Result.NOT_TRUSTED;
+                assertEquals(result, index.contains(owners[i][j], trusted));
+            }
+        }
+    }
+
+    @Test
+    public void lookupsDuringRebuildSeeOldOrNewFile() throws Exception {
+        MappedTrustIndex index = new MappedTrustIndex(folder.newFile("trusts.idx"));
+        index.build(new EmptyStorage());
+        UUID trusted = UUID.randomUUID();
+        TrustSet trusting = TrustSet.of(Collections.singletonList(trusted));
+        List<UUID> owners = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            owners.add(UUID.randomUUID());
+            index.update(owners.get(i), trusting);
+        }
+        index.rebuild();
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<MappedTrustIndex.Result> wrong = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                for (UUID owner : owners) {
+                    // Unknown while the file is being replaced, but never a different answer
+                    MappedTrustIndex.Result result = index.contains(owner, trusted);
+                    if (result == MappedTrustIndex.Result.NOT_TRUSTED) {
+                        wrong.set(result);
+                    }
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 200; ++i) {
+            UUID removed = UUID.randomUUID();
+            index.update(removed, trusting);
+            index.rebuild();
+            index.update(removed, TrustSet.empty());
+            index.rebuild();
+        }
+        done.set(true);
+        reader.join();
+        assertNull(wrong.get());
+        for (UUID owner : owners) {
+            assertEquals(MappedTrustIndex.Result.TRUSTED, index.contains(owner, trusted));
+        }
+    }
+
+    @Test
+    public void reopenRequiresSameGeneration() throws Exception {
+        File file = folder.newFile("trusts.idx");
+        MappedTrustIndex index = new MappedTrustIndex(file);
+        index.build(new EmptyStorage());
+        UUID owner = UUID.randomUUID(), trusted = UUID.randomUUID();
+        index.update(owner, TrustSet.of(Collections.singletonList(trusted)));
+        index.close(1);
+        MappedTrustIndex reopened = new MappedTrustIndex(file);
+        assertTrue(reopened.open(1));
+        assertEquals(MappedTrustIndex.Result.TRUSTED, reopened.contains(owner, trusted));
+        reopened.close(1);
+        // Storage changed while the index was closed
+        assertFalse(new MappedTrustIndex(file).open(2));
+    }
+
+    private static final class EmptyStorage implements TrustStorage {
+
+        @Override
+        public TrustSet load(UUID owner) {
+            return TrustSet.empty();
+        }
+
+        @Override
+        public void save(UUID owner, TrustSet trusts) {
+        }
+
+        @Override
+        public void forEachOwner(Consumer<UUID> consumer) {
+        }
+
+    }
+
+}
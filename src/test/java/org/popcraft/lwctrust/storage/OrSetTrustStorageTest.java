@@ -0,0 +1,85 @@
+package org.popcraft.lwctrust.storage;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.popcraft.lwctrust.TrustSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class OrSetTrustStorageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JsonTrustStorage legacy;
+    private File directory;
+    private OrSetTrustStorage first, second;
+
+    @Before
+    public void setUp() throws IOException {
+        legacy = new JsonTrustStorage(folder.newFolder("trusts"));
+        directory = folder.newFolder("trusts-orset");
+        first = new OrSetTrustStorage(legacy, directory, "first", 16);
+        second = new OrSetTrustStorage(legacy, directory, "second", 16);
+    }
+
+    @Test
+    public void concurrentAddAndRemoveMerge() throws IOException {
+        UUID owner = UUID.randomUUID(), kept = UUID.randomUUID(), added = UUID.randomUUID();
+        first.save(owner, trusts(kept));
+        TrustSet loaded = second.load(owner);
+        first.save(owner, first.load(owner).with(Collections.singletonList(added)));
+        // The second server never saw the added player, so removing the kept player leaves it alone
+        second.save(owner, loaded.without(Collections.singletonList(kept)));
+        TrustSet merged = first.load(owner);
+        assertFalse(merged.contains(kept));
+        assertTrue(merged.contains(added));
+    }
+
+    @Test
+    public void tagsAreNotReusedAfterReplicaIsDeleted() throws IOException {
+        UUID owner = UUID.randomUUID(), removed = UUID.randomUUID(), added = UUID.randomUUID();
+        first.save(owner, trusts(removed));
+        TrustSet stale = second.load(owner);
+        // Removing the only trust empties the first server's replica, which the next save compacts and deletes
+        first.save(owner, TrustSet.empty());
+        first.save(owner, TrustSet.empty());
+        assertFalse(new File(folder.getRoot(), "trusts-orset/" + owner + "/first.json").exists());
+        first.save(owner, trusts(added));
+        // A stale removal of the old trust must not match the tag of the new one
+        second.save(owner, stale.without(Collections.singletonList(removed)));
+        TrustSet merged = second.load(owner);
+        assertFalse(merged.contains(removed));
+        assertTrue(merged.contains(added));
+    }
+
+    @Test
+    public void removalWithoutObservedTagsIsRefused() throws IOException {
+        UUID owner = UUID.randomUUID(), kept = UUID.randomUUID(), added = UUID.randomUUID();
+        first.save(owner, trusts(kept));
+        // New instances have seen nothing, as if their observed tags were evicted, which is fine for an add
+        new OrSetTrustStorage(legacy, directory, "first", 16).save(owner, trusts(kept, added));
+        try {
+            new OrSetTrustStorage(legacy, directory, "first", 16).save(owner, trusts(added));
+            fail("Removal without observed tags was saved");
+        } catch (StaleTrustsException e) {
+            assertEquals(owner, e.getOwner());
+        }
+        TrustSet merged = second.load(owner);
+        assertTrue(merged.contains(kept));
+        assertTrue(merged.contains(added));
+    }
+
+    private static TrustSet trusts(UUID... trusted) {
+        return TrustSet.of(Arrays.asList(trusted));
+    }
+
+}
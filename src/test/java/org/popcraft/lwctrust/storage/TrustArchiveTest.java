@@ -0,0 +1,77 @@
+package org.popcraft.lwctrust.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.popcraft.lwctrust.TrustExpiries;
+import org.popcraft.lwctrust.TrustSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class TrustArchiveTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void exportAndReadBack() throws IOException {
+        JsonTrustStorage storage = new JsonTrustStorage(folder.newFolder("trusts"));
+        Map<UUID, TrustSet> trusts = new HashMap<>();
+        for (int i = 0; i < 2500; ++i) {
+            trusts.put(UUID.randomUUID(), TrustSet.of(Arrays.asList(UUID.randomUUID(), UUID.randomUUID())));
+        }
+        storage.saveAll(trusts);
+        UUID timedOwner = trusts.keySet().iterator().next();
+        UUID timed = trusts.get(timedOwner).iterator().next();
+        Map<UUID, Map<UUID, Long>> deadlines = Collections.singletonMap(timedOwner,
+                Collections.singletonMap(timed, 1234L));
+        File file = new File(folder.getRoot(), "trusts.lta");
+        TrustArchive archive = new TrustArchive(ForkJoinPool.commonPool());
+        assertEquals(trusts.size(), archive.export(storage, deadlines, file, owners -> { }));
+        Map<UUID, TrustSet> read = new HashMap<>();
+        Map<UUID, Map<UUID, Long>> readDeadlines = new HashMap<>();
+        assertEquals(trusts.size(), archive.read(file, (block, blockDeadlines) -> {
+            read.putAll(block);
+            readDeadlines.putAll(blockDeadlines);
+        }, owners -> { }));
+        assertEquals(trusts.keySet(), read.keySet());
+        trusts.forEach((owner, trusted) -> assertEquals(trusted.toList(), read.get(owner).toList()));
+        assertEquals(deadlines, readDeadlines);
+    }
+
+    @Test
+    public void offlineImportInvalidatesDerivedFilesAndKeepsDeadlines() throws IOException {
+        File dataFolder = folder.newFolder("LWCTrust");
+        UUID owner = UUID.randomUUID(), trusted = UUID.randomUUID(), timed = UUID.randomUUID();
+        JsonTrustStorage source = new JsonTrustStorage(folder.newFolder("source"));
+        source.save(owner, TrustSet.of(Collections.singletonList(trusted)));
+        File file = new File(folder.getRoot(), "trusts.lta");
+        new TrustArchive(ForkJoinPool.commonPool()).export(source, Collections.singletonMap(owner,
+                Collections.singletonMap(trusted, Long.MAX_VALUE)), file, owners -> { });
+        TrustExpiries expiries = new TrustExpiries(new File(dataFolder, "expiries.dat"));
+        expiries.expireAt(owner, Collections.singletonList(timed), Long.MAX_VALUE);
+        expiries.save();
+        for (String name : Arrays.asList("trusts.idx", "trusts.idx.clean", "reverse.idx", "reverse.idx.clean",
+                "hot.dat")) {
+            Files.write(new File(dataFolder, name).toPath(), new byte[0]);
+        }
+        assertEquals(1, TrustArchive.runOffline(false, file, dataFolder, "json", TrustArchive.Mode.OVERWRITE,
+                owners -> { }));
+        assertTrue(new JsonTrustStorage(new File(dataFolder, "trusts")).load(owner).contains(trusted));
+        assertFalse(new File(dataFolder, "trusts.idx.clean").exists());
+        assertFalse(new File(dataFolder, "reverse.idx.clean").exists());
+        assertFalse(new File(dataFolder, "hot.dat").exists());
+        // The overwritten deadline is gone and the archived one is kept
+        TrustExpiries reloaded = new TrustExpiries(new File(dataFolder, "expiries.dat"));
+        reloaded.load();
+        assertEquals(Collections.singletonMap(owner, Collections.singletonMap(trusted, Long.MAX_VALUE)),
+                reloaded.getDeadlines());
+    }
+
+}
@@ -0,0 +1,114 @@
+package org.popcraft.lwctrust.sync;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.popcraft.lwctrust.MemoryTrustStorage;
+import org.popcraft.lwctrust.TrustCache;
+import org.popcraft.lwctrust.TrustSet;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class DirectoryBusTest {
+
+    private static final long POLL_INTERVAL = 10;
+    private static final long TIMEOUT = 5000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<InvalidationBus> buses = new ArrayList<>();
+
+    @After
+    public void tearDown() throws IOException {
+        for (InvalidationBus bus : buses) {
+            bus.close();
+        }
+    }
+
+    @Test
+    public void changesReachTheOtherServer() throws Exception {
+        Path directory = folder.newFolder("sync").toPath();
+        // Both servers share one storage, as they would in production
+        MemoryTrustStorage storage = new MemoryTrustStorage();
+        TrustCache first = newCache(storage), second = newCache(storage);
+        startSync(first, directory);
+        startSync(second, directory);
+        UUID owner = UUID.randomUUID(), trusted = UUID.randomUUID();
+        assertTrue(second.load(owner).isEmpty());
+        first.save(owner, first.update(owner, trusts -> trusts.with(Collections.singletonList(trusted))));
+        awaitTrue(() -> second.get(owner) != null && second.get(owner).contains(trusted));
+        first.save(owner, first.update(owner, trusts -> trusts.without(Collections.singletonList(trusted))));
+        awaitTrue(() -> second.get(owner) != null && !second.get(owner).contains(trusted));
+    }
+
+    @Test
+    public void serversIgnoreTheirOwnBatches() throws Exception {
+        Path directory = folder.newFolder("sync").toPath();
+        List<TrustDelta> firstReceived = Collections.synchronizedList(new ArrayList<>());
+        List<TrustDelta> secondReceived = Collections.synchronizedList(new ArrayList<>());
+        DirectoryBus first = startBus(directory, 60000, firstReceived);
+        startBus(directory, 60000, secondReceived);
+        UUID owner = UUID.randomUUID();
+        first.publish(Collections.singletonList(new TrustDelta(owner,
+                Collections.singletonList(UUID.randomUUID()), Collections.emptyList())));
+        awaitTrue(() -> !secondReceived.isEmpty());
+        assertEquals(owner, secondReceived.get(0).getOwner());
+        // Give the publishing server a few more polls to pick up its own file
+        Thread.sleep(POLL_INTERVAL * 10);
+        assertTrue(firstReceived.isEmpty());
+        assertEquals(1, secondReceived.size());
+    }
+
+    @Test
+    public void batchesPastRetentionAreDeleted() throws Exception {
+        Path directory = folder.newFolder("sync").toPath();
+        // Named as if written a long time ago by another server
+        Path old = directory.resolve(String.format("%016x-%s-%08x.delta", 1L, UUID.randomUUID(), 0));
+        Files.write(old, new byte[0]);
+        DirectoryBus bus = startBus(directory, 60000, Collections.synchronizedList(new ArrayList<>()));
+        bus.publish(Collections.singletonList(new TrustDelta(UUID.randomUUID(),
+                Collections.singletonList(UUID.randomUUID()), Collections.emptyList())));
+        awaitTrue(() -> !Files.exists(old));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    private DirectoryBus startBus(Path directory, long retention, List<TrustDelta> received) throws IOException {
+        DirectoryBus bus = new DirectoryBus(directory, Logger.getAnonymousLogger(), POLL_INTERVAL, retention);
+        buses.add(bus);
+        bus.start(received::addAll);
+        return bus;
+    }
+
+    private void startSync(TrustCache trustCache, Path directory) throws IOException {
+        DirectoryBus bus = new DirectoryBus(directory, Logger.getAnonymousLogger(), POLL_INTERVAL, 60000);
+        buses.add(bus);
+        TrustSync sync = new TrustSync(Logger.getAnonymousLogger(), bus);
+        trustCache.setSync(sync);
+        sync.start(trustCache, POLL_INTERVAL);
+    }
+
+    private static TrustCache newCache(MemoryTrustStorage storage) {
+        return new TrustCache(Logger.getAnonymousLogger(), 16, storage, Runnable::run);
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(POLL_INTERVAL);
+        }
+    }
+
+}